@@ -0,0 +1,76 @@
+package testleaf.llm;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Extracting the answer from a chat completion body: {@link LLMCompletion}'s streaming parser
+ * against the {@code readTree(...).path("choices").get(0).path("message").path("content")} it
+ * replaced, both with a new {@link ObjectMapper} per call, as several callers used to do, and
+ * with the shared {@link LLMJson#MAPPER}. The answer is generated code with escaped quotes and
+ * newlines, {@code contentChars} long.
+ * <p>
+ * Run with:
+ * <pre>
+ * mvn -Pbenchmarks -q compile dependency:build-classpath -Dmdep.outputFile=target/jmh.classpath
+ * java -cp target/classes:$(cat target/jmh.classpath) org.openjdk.jmh.Main LLMCompletionBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LLMCompletionBenchmark {
+
+    @Param({"200", "8000", "200000"})
+    public int contentChars;
+
+    private String body;
+
+    @Setup
+    public void buildBody() throws IOException {
+        StringBuilder content = new StringBuilder(contentChars + 64);
+        String line = "    driver.findElement(By.cssSelector(\"#submit\")).click(); // step\n";
+        while (content.length() < contentChars) {
+            content.append(line);
+        }
+        content.setLength(contentChars);
+        body = "{\"id\":\"chatcmpl-123\",\"object\":\"chat.completion\",\"created\":1700000000,"
+                + "\"model\":\"gpt-4o-mini\",\"system_fingerprint\":\"fp_1234\","
+                + "\"choices\":[{\"index\":0,\"message\":{\"role\":\"assistant\",\"content\":"
+                + LLMJson.MAPPER.writeValueAsString(content.toString())
+                + ",\"refusal\":null},\"logprobs\":null,\"finish_reason\":\"stop\"}],"
+                + "\"usage\":{\"prompt_tokens\":812,\"completion_tokens\":" + contentChars / 4
+                + ",\"total_tokens\":" + (812 + contentChars / 4) + "}}";
+    }
+
+    @Benchmark
+    public String readTreeNewMapper() throws IOException {
+        return new ObjectMapper().readTree(body).path("choices").get(0).path("message").path("content").asText();
+    }
+
+    @Benchmark
+    public String readTreeSharedMapper() throws IOException {
+        return LLMJson.MAPPER.readTree(body).path("choices").get(0).path("message").path("content").asText();
+    }
+
+    @Benchmark
+    public String streaming() {
+        return LLMCompletion.parse(body).getContent();
+    }
+}
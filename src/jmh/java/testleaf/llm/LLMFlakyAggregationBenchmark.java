@@ -0,0 +1,108 @@
+package testleaf.llm;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to fold a synthetic run history into per-test aggregates, sequentially
+ * ({@code parallelism = 1}, the path {@code llm.flaky.parallelism = 1} takes) and through
+ * {@link LLMFlakyAggregator} on 2..N fork/join workers. Rows are generated up front, so only
+ * aggregation is measured, not parsing. Scaling needs at least {@code parallelism} free cores.
+ * <p>
+ * Run with:
+ * <pre>
+ * mvn -Pbenchmarks -q compile dependency:build-classpath -Dmdep.outputFile=target/jmh.classpath
+ * java -cp target/classes:$(cat target/jmh.classpath) org.openjdk.jmh.Main LLMFlakyAggregationBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class LLMFlakyAggregationBenchmark {
+
+    private static final String[] STATUSES = {"PASSED", "FAILED", "SKIPPED"};
+    private static final String[] ERRORS = {
+            "Timeout after 30s waiting for element #submit",
+            "Expected status 200 but was 503",
+            "Connection refused: localhost:5432"};
+
+    @Param("10000000")
+    public int rows;
+
+    @Param("10000")
+    public int tests;
+
+    @Param({"1", "2", "4", "8"})
+    public int parallelism;
+
+    private String[] testNames;
+    private int[] testOf;
+    private byte[] statusOf;
+    private long[] durations;
+    private long[] times;
+
+    @Setup
+    public void generate() {
+        SplittableRandom random = new SplittableRandom(42);
+        testNames = new String[tests];
+        for (int i = 0; i < tests; i++) {
+            testNames[i] = "com.example.suite" + (i % 50) + ".Test" + i + "#case";
+        }
+        testOf = new int[rows];
+        statusOf = new byte[rows];
+        durations = new long[rows];
+        times = new long[rows];
+        long start = LocalDateTime.of(2024, 1, 1, 0, 0).toEpochSecond(ZoneOffset.UTC);
+        for (int i = 0; i < rows; i++) {
+            testOf[i] = random.nextInt(tests);
+            int roll = random.nextInt(100);
+            statusOf[i] = (byte) (roll < 90 ? 0 : roll < 97 ? 1 : 2);
+            durations[i] = 50 + random.nextInt(5000);
+            times[i] = start + i / 10;
+        }
+    }
+
+    @Benchmark
+    public LLMFlakyHistory aggregate() {
+        if (parallelism <= 1) {
+            LLMFlakyHistory history = newHistory();
+            feed(history::add);
+            return history;
+        }
+        LLMFlakyAggregator aggregator = new LLMFlakyAggregator(ForkJoinPool.commonPool(),
+                parallelism, 4096, LLMFlakyAggregationBenchmark::newHistory);
+        feed(aggregator::add);
+        return aggregator.finish();
+    }
+
+    private void feed(LLMFlakyAnalyzer.RunSink sink) {
+        for (int i = 0; i < rows; i++) {
+            byte status = statusOf[i];
+            sink.accept(testNames[testOf[i]], STATUSES[status], durations[i],
+                    status == 1 ? ERRORS[i % ERRORS.length] : "",
+                    LocalDateTime.ofEpochSecond(times[i], 0, ZoneOffset.UTC));
+        }
+    }
+
+    private static LLMFlakyHistory newHistory() {
+        return new LLMFlakyHistory(20, 168 * 3600L, 168 * 3600L, 600);
+    }
+}
@@ -1,7 +1,8 @@
 package testleaf.controller;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import testleaf.llm.LLMConverterService;
+import testleaf.llm.LLMGateway;
+import testleaf.llm.LLMJson;
 import testleaf.llm.TestCodeGenerator;
 import lombok.RequiredArgsConstructor;
 import org.apache.http.client.methods.CloseableHttpResponse;
@@ -9,9 +10,13 @@ import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.util.EntityUtils;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 @RequestMapping("/api/convert")
@@ -21,38 +26,68 @@ public class ConversionController {
 
     private final LLMConverterService converterService;
     private final TestCodeGenerator testCodeGenerator;
+    private final SseRelay sseRelay;
 
-    public ConversionController(LLMConverterService converterService, TestCodeGenerator testCodeGenerator) {
+    public ConversionController(LLMConverterService converterService, TestCodeGenerator testCodeGenerator, SseRelay sseRelay) {
         this.converterService = converterService;
         this.testCodeGenerator = testCodeGenerator;
+        this.sseRelay = sseRelay;
     }
 
 
     // Endpoint to convert Selenium Java code to Playwright TypeScript code
     @PostMapping("/seleniumToPlaywright")
-    public ResponseEntity<String> convertSeleniumToPlaywright(@RequestBody Map<String, String> payload) {
+    public CompletableFuture<ResponseEntity<String>> convertSeleniumToPlaywright(@RequestBody Map<String, String> payload) {
         try {
             String seleniumCode = payload.get("seleniumCode");
             String llmApiKey = payload.get("llmApiKey");
             String llmApiUrl = payload.get("llmApiUrl");
             String llmModel = payload.get("llmModel");
+            boolean noCache = Boolean.parseBoolean(payload.get("noCache"));
 
             if (seleniumCode == null || seleniumCode.trim().isEmpty()) {
-                return ResponseEntity.badRequest().body("Missing seleniumCode");
+                return CompletableFuture.completedFuture(ResponseEntity.badRequest().body("Missing seleniumCode"));
             }
 
             if (llmApiKey == null || llmApiUrl == null || llmModel == null) {
-                return ResponseEntity.badRequest().body("Missing LLM configuration.");
+                return CompletableFuture.completedFuture(ResponseEntity.badRequest().body("Missing LLM configuration."));
             }
 
-            String result = converterService.convertSeleniumToPlaywright(seleniumCode, llmApiKey, llmApiUrl, llmModel);
-            return ResponseEntity.ok(result);
+            return converterService.convertSeleniumToPlaywrightAsync(seleniumCode, llmApiKey, llmApiUrl, llmModel, noCache)
+                    .thenApply(ResponseEntity::ok)
+                    .exceptionally(this::conversionError);
 
         } catch (Exception e) {
-            return ResponseEntity.status(500).body("Error during conversion: " + e.getMessage());
+            return CompletableFuture.completedFuture(conversionError(e));
         }
     }
 
+    private ResponseEntity<String> conversionError(Throwable error) {
+        Throwable cause = LLMGateway.unwrap(error);
+        return LLMErrorResponses.status(cause, HttpStatus.INTERNAL_SERVER_ERROR).body("Error during conversion: " + cause.getMessage());
+    }
+
+    // Streaming variant of /seleniumToPlaywright: relays the conversion as Server-Sent Events
+    @PostMapping(value = "/seleniumToPlaywright/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamSeleniumToPlaywright(@RequestBody Map<String, String> payload) {
+        String seleniumCode = payload.get("seleniumCode");
+        String llmApiKey = payload.get("llmApiKey");
+        String llmApiUrl = payload.get("llmApiUrl");
+        String llmModel = payload.get("llmModel");
+        boolean noCache = Boolean.parseBoolean(payload.get("noCache"));
+
+        if (seleniumCode == null || seleniumCode.trim().isEmpty()) {
+            return sseRelay.fail("Missing seleniumCode");
+        }
+
+        if (llmApiKey == null || llmApiUrl == null || llmModel == null) {
+            return sseRelay.fail("Missing LLM configuration.");
+        }
+
+        return sseRelay.stream(onDelta ->
+                converterService.streamSeleniumToPlaywright(seleniumCode, llmApiKey, llmApiUrl, llmModel, noCache, onDelta));
+    }
+
     // Stub endpoint to compile Selenium code (dummy implementation)
     @PostMapping("/compileSelenium")
     public ResponseEntity<String> compileSelenium(@RequestBody CodeRequest request) {
@@ -77,8 +112,7 @@ public class ConversionController {
             post.setHeader("Content-Type", "application/json");
 
             // Build payload for the external API
-            ObjectMapper mapper = new ObjectMapper();
-            String payload = mapper.writeValueAsString(request);
+            String payload = LLMJson.MAPPER.writeValueAsString(request);
             post.setEntity(new StringEntity(payload));
 
             // Execute the request
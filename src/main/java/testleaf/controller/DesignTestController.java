@@ -2,11 +2,16 @@ package testleaf.controller;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import testleaf.llm.LLMDesignTestGenerator;
+import testleaf.llm.LLMGateway;
+import testleaf.llm.LLMPrompt;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 @RequestMapping("/api/design")
@@ -14,10 +19,12 @@ import java.util.Map;
 public class DesignTestController {
 
     private final LLMDesignTestGenerator testGenerator;
+    private final SseRelay sseRelay;
 
     @Autowired
-    public DesignTestController(LLMDesignTestGenerator testGenerator) {
+    public DesignTestController(LLMDesignTestGenerator testGenerator, SseRelay sseRelay) {
         this.testGenerator = testGenerator;
+        this.sseRelay = sseRelay;
     }
 
     public static class DesignTestRequest {
@@ -25,28 +32,46 @@ public class DesignTestController {
         public String llmApiUrl;
         public String llmApiKey;
         public String llmModel;
+        public boolean noCache;
     }
 
     @PostMapping("/generate")
-    public ResponseEntity<Map<String, String>> generateTests(@RequestBody DesignTestRequest request) {
+    public CompletableFuture<ResponseEntity<Map<String, String>>> generateTests(@RequestBody DesignTestRequest request) {
         try {
-            String prompt = testGenerator.buildPromptFromDescription(request.description);
+            LLMPrompt prompt = testGenerator.buildPromptFromDescription(request.description);
 
-            Map<String, String> result = testGenerator.callLLMToGenerateTestCases(
+            return testGenerator.callLLMToGenerateTestCasesAsync(
                     prompt,
                     request.llmApiUrl,
                     request.llmApiKey,
-                    request.llmModel
-            );
-
-            return ResponseEntity.ok(result);
+                    request.llmModel,
+                    request.noCache
+            ).thenApply(ResponseEntity::ok)
+                    .exceptionally(error -> emptyResult(LLMGateway.unwrap(error)));
 
         } catch (Exception e) {
-            Map<String, String> error = new HashMap<>();
-            error.put("bdd", "");
-            error.put("tdd", "");
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(error);
+            return CompletableFuture.completedFuture(emptyResult(e));
         }
     }
-}
 
+    private ResponseEntity<Map<String, String>> emptyResult(Throwable cause) {
+        Map<String, String> error = new HashMap<>();
+        error.put("bdd", "");
+        error.put("tdd", "");
+        return LLMErrorResponses.status(cause, HttpStatus.INTERNAL_SERVER_ERROR).body(error);
+    }
+
+    // Streaming variant of /generate: relays the LLM output as Server-Sent Events,
+    // ending with a "result" event holding the same bdd/tdd map.
+    @PostMapping(value = "/generate/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamTests(@RequestBody DesignTestRequest request) {
+        return sseRelay.stream(onDelta -> testGenerator.streamTestCases(
+                testGenerator.buildPromptFromDescription(request.description),
+                request.llmApiUrl,
+                request.llmApiKey,
+                request.llmModel,
+                request.noCache,
+                onDelta
+        ));
+    }
+}
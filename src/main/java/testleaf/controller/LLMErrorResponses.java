@@ -0,0 +1,24 @@
+package testleaf.controller;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import testleaf.llm.LLMRateLimitedException;
+
+/**
+ * Maps LLM failures to a response status: rate limiting becomes 429 with a
+ * {@code Retry-After} header, anything else keeps the controller's own status.
+ */
+final class LLMErrorResponses {
+
+    private LLMErrorResponses() {
+    }
+
+    static ResponseEntity.BodyBuilder status(Throwable cause, HttpStatus fallback) {
+        if (cause instanceof LLMRateLimitedException rateLimited) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(rateLimited.getRetryAfterSeconds()));
+        }
+        return ResponseEntity.status(fallback);
+    }
+}
@@ -5,11 +5,22 @@ import org.springframework.core.io.ClassPathResource;
 import org.springframework.core.io.InputStreamResource;
 import org.springframework.http.*;
 import testleaf.llm.LLMFlakyAnalyzer;
+import testleaf.llm.LLMFlakyReports;
+import testleaf.llm.LLMFlakyRunPage;
+import testleaf.llm.LLMFlakyRunStore;
+import testleaf.llm.LLMFlakySuggestionCache;
+import testleaf.llm.LLMFlakyTestResponse;
+import testleaf.llm.LLMFlakyTestResult;
+import testleaf.llm.LLMFlakyWatcher;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
-import testleaf.llm.LLMFlakyTestResponse;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import testleaf.llm.LLMGateway;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Logger;
 import java.io.InputStream;
+import java.nio.file.Path;
 
 @RestController
 @RequestMapping("/flaky")
@@ -21,33 +32,174 @@ public class LLMFlakyAnalyzerController {
     @Autowired
     private LLMFlakyAnalyzer analyzer;
 
+    @Autowired
+    private LLMFlakyRunStore runStore;
+
+    @Autowired
+    private LLMFlakyReports reports;
+
+    @Autowired
+    private LLMFlakyWatcher watcher;
+
+    @Autowired
+    private LLMFlakySuggestionCache suggestionCache;
+
+    /**
+     * Accepts {@code format} csv, json (an array or NDJSON) or junit-xml (one report or a zip of
+     * reports). Returns one summary per reported test by default; {@code view=full} adds each test's runs
+     * and the suggestion map. Runs can also be paged per test with the returned analysis id: every
+     * retained run when the run store is enabled, otherwise the last {@code llm.flaky.recent-runs}.
+     * The response is streamed as it is serialized.
+     */
     @PostMapping("/analyze")
-    public ResponseEntity<?> analyzeFlakyTests(
+    public CompletableFuture<ResponseEntity<?>> analyzeFlakyTests(
             @RequestParam("file") MultipartFile file,
             @RequestParam("format") String format,
             @RequestParam("threshold") int threshold,
+            @RequestParam(value = "topN", defaultValue = "0") int topN,
             @RequestParam("llmApiUrl") String llmApiUrl,
             @RequestParam("llmApiKey") String llmApiKey,
-            @RequestParam("llmModel") String llmModel
+            @RequestParam("llmModel") String llmModel,
+            @RequestParam(value = "view", defaultValue = "summary") String view
     ) {
         try {
             if (file.isEmpty()) {
-                return ResponseEntity.badRequest().body("Uploaded file is empty.");
+                return CompletableFuture.completedFuture(ResponseEntity.badRequest().body("Uploaded file is empty."));
             }
 
             LOGGER.info("Received file: " + file.getOriginalFilename());
             InputStream input = file.getInputStream();
 
-            LLMFlakyTestResponse result = analyzer.analyze(input, format, threshold, llmApiUrl, llmApiKey, llmModel);
-            LOGGER.info("Analysis completed. Returning result.");
+            return respond(analyzer.analyzeAsync(input, format, threshold, topN, llmApiUrl, llmApiKey, llmModel), view,
+                    runStore.isEnabled());
+
+        } catch (Exception e) {
+            return CompletableFuture.completedFuture(analysisError(e));
+        }
+    }
+
+    /**
+     * Same as {@code /analyze}, over the aggregates kept current from {@code llm.flaky.watch.dir}
+     * instead of an upload, so only the LLM stage runs.
+     */
+    @PostMapping("/analyze/watched")
+    public CompletableFuture<ResponseEntity<?>> analyzeWatchedTests(
+            @RequestParam("threshold") int threshold,
+            @RequestParam(value = "topN", defaultValue = "0") int topN,
+            @RequestParam("llmApiUrl") String llmApiUrl,
+            @RequestParam("llmApiKey") String llmApiKey,
+            @RequestParam("llmModel") String llmModel,
+            @RequestParam(value = "view", defaultValue = "summary") String view
+    ) {
+        if (!watcher.isEnabled()) {
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body("Flaky watcher is disabled; set llm.flaky.watch.dir"));
+        }
+        try {
+            List<LLMFlakyTestResult> topFlaky = watcher.read(history -> analyzer.report(history, threshold, topN));
+            return respond(analyzer.suggestAsync(topFlaky, llmApiUrl, llmApiKey, llmModel), view, false);
+        } catch (Exception e) {
+            return CompletableFuture.completedFuture(analysisError(e));
+        }
+    }
+
+    /**
+     * Analyzes a CSV history already on the server, named by {@code path}, which must resolve to
+     * a file under {@code llm.flaky.local.allowed-dirs}. The file is memory-mapped and parsed on
+     * all cores, which suits histories too large to upload.
+     */
+    @PostMapping("/analyze/local")
+    public CompletableFuture<ResponseEntity<?>> analyzeLocalFile(
+            @RequestParam("path") String path,
+            @RequestParam("threshold") int threshold,
+            @RequestParam(value = "topN", defaultValue = "0") int topN,
+            @RequestParam("llmApiUrl") String llmApiUrl,
+            @RequestParam("llmApiKey") String llmApiKey,
+            @RequestParam("llmModel") String llmModel,
+            @RequestParam(value = "view", defaultValue = "summary") String view
+    ) {
+        if (!analyzer.isLocalEnabled()) {
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body("Local flaky analysis is disabled; set llm.flaky.local.allowed-dirs"));
+        }
+        Path file = analyzer.allowedLocalFile(path);
+        if (file == null) {
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.FORBIDDEN)
+                    .body("Not a file under llm.flaky.local.allowed-dirs: " + path));
+        }
+        try {
+            LOGGER.info("Analyzing local flaky history " + file);
+            List<LLMFlakyTestResult> topFlaky = analyzer.report(analyzer.ingestLocalCsv(file), threshold, topN);
+            return respond(analyzer.suggestAsync(topFlaky, llmApiUrl, llmApiKey, llmModel), view, false);
+        } catch (Exception e) {
+            return CompletableFuture.completedFuture(analysisError(e));
+        }
+    }
+
+    private CompletableFuture<ResponseEntity<?>> respond(CompletableFuture<LLMFlakyTestResponse> analysis, String view,
+                                                         boolean stored) {
+        return analysis.<ResponseEntity<?>>thenApply(result -> {
+                    LOGGER.info("Analysis completed. Returning result.");
+                    reports.put(result, stored);
+                    boolean summary = !"full".equalsIgnoreCase(view);
+                    StreamingResponseBody body = out -> reports.write(result, out, summary);
+                    return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+                })
+                .exceptionally(this::analysisError);
+    }
 
-            return ResponseEntity.ok(result);
+    private ResponseEntity<?> analysisError(Throwable error) {
+        Throwable cause = LLMGateway.unwrap(error);
+        LOGGER.severe("Error during flaky test analysis: " + cause.getMessage());
+        cause.printStackTrace();
+        return LLMErrorResponses.status(cause, HttpStatus.INTERNAL_SERVER_ERROR)
+                .body("Failed to analyze test file: " + cause.getMessage());
+    }
+
+    /**
+     * Pages through one reported test's runs, oldest first, at most {@link LLMFlakyReports#MAX_PAGE_SIZE}
+     * per page. Analyses from the run store page over the test's whole retained history; others
+     * only over the recent runs kept with the analysis.
+     */
+    @GetMapping("/analyses/{analysisId}/runs")
+    public ResponseEntity<?> testRuns(@PathVariable String analysisId,
+                                      @RequestParam("testName") String testName,
+                                      @RequestParam(value = "page", defaultValue = "0") int page,
+                                      @RequestParam(value = "size", defaultValue = "50") int size) {
+        LLMFlakyRunPage runs = reports.runs(analysisId, testName, page, size);
+        if (runs == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body("No runs for test '" + testName + "' in analysis " + analysisId + "; it may have expired.");
+        }
+        return ResponseEntity.ok(runs);
+    }
+
+    @GetMapping("/watch/stats")
+    public ResponseEntity<?> watchStats() {
+        return ResponseEntity.ok(watcher.stats());
+    }
 
+    @GetMapping("/suggestions/cache/stats")
+    public ResponseEntity<?> suggestionCacheStats() {
+        return ResponseEntity.ok(suggestionCache.stats());
+    }
+
+    @GetMapping("/store/stats")
+    public ResponseEntity<?> storeStats() {
+        return ResponseEntity.ok(runStore.stats());
+    }
+
+    @PostMapping("/store/compact")
+    public ResponseEntity<?> compactStore() {
+        if (!runStore.isEnabled()) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body("Flaky run store is disabled; set llm.flaky.store.dir");
+        }
+        try {
+            runStore.compact();
+            return ResponseEntity.ok(runStore.stats());
         } catch (Exception e) {
-            LOGGER.severe("Error during flaky test analysis: " + e.getMessage());
-            e.printStackTrace();
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body("Failed to analyze test file: " + e.getMessage());
+            LOGGER.severe("Flaky run store compaction failed: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Compaction failed: " + e.getMessage());
         }
     }
 
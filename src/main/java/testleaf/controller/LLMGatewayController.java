@@ -0,0 +1,61 @@
+package testleaf.controller;
+
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import testleaf.llm.LLMInFlightRegistry;
+import testleaf.llm.LLMResponseCache;
+import testleaf.llm.LLMRouter;
+import testleaf.llm.LLMScheduler;
+import testleaf.llm.LLMTokenBudget;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/llm")
+@CrossOrigin(origins = "*")
+public class LLMGatewayController {
+
+    private final LLMResponseCache responseCache;
+    private final LLMInFlightRegistry inFlightRegistry;
+    private final LLMScheduler scheduler;
+    private final LLMRouter router;
+    private final LLMTokenBudget tokenBudget;
+
+    public LLMGatewayController(LLMResponseCache responseCache, LLMInFlightRegistry inFlightRegistry,
+                                LLMScheduler scheduler, LLMRouter router, LLMTokenBudget tokenBudget) {
+        this.responseCache = responseCache;
+        this.inFlightRegistry = inFlightRegistry;
+        this.scheduler = scheduler;
+        this.router = router;
+        this.tokenBudget = tokenBudget;
+    }
+
+    // Hit/miss/eviction counters of the shared LLM response cache
+    @GetMapping("/cache/stats")
+    public ResponseEntity<Map<String, Long>> cacheStats() {
+        return ResponseEntity.ok(responseCache.stats());
+    }
+
+    // How many identical LLM requests were joined onto an already running call
+    @GetMapping("/inflight/stats")
+    public ResponseEntity<Map<String, Long>> inFlightStats() {
+        return ResponseEntity.ok(inFlightRegistry.stats());
+    }
+
+    // Queue depth, remaining per-minute budget and admission wait times per LLM endpoint
+    @GetMapping("/scheduler/stats")
+    public ResponseEntity<Map<String, Object>> schedulerStats() {
+        return ResponseEntity.ok(scheduler.stats());
+    }
+
+    // Latency EWMA/p95, health and hedge outcomes per routed LLM endpoint
+    @GetMapping("/routing/stats")
+    public ResponseEntity<Map<String, Object>> routingStats() {
+        return ResponseEntity.ok(router.stats());
+    }
+
+    // Learned output/input token ratios per task and reported token usage per endpoint
+    @GetMapping("/tokens/stats")
+    public ResponseEntity<Map<String, Object>> tokenStats() {
+        return ResponseEntity.ok(tokenBudget.stats());
+    }
+}
@@ -1,10 +1,13 @@
 package testleaf.controller;
 
+import testleaf.llm.LLMGateway;
 import testleaf.llm.LLMPOMGenerator;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.beans.factory.annotation.Autowired;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 @CrossOrigin(origins = "*")
 @RestController
@@ -15,7 +18,7 @@ public class LLMPOMGenerationController {
     private LLMPOMGenerator pomGenerator;
 
     @PostMapping("/generate")
-    public ResponseEntity<String> generatePOM(@RequestBody Map<String, String> payload) {
+    public CompletableFuture<ResponseEntity<String>> generatePOM(@RequestBody Map<String, String> payload) {
         try {
             String xml = payload.get("xmlContent");
             String platform = payload.get("platform");
@@ -29,15 +32,20 @@ public class LLMPOMGenerationController {
             String llmApiKey = payload.getOrDefault("llmApiKey", "");
             String llmModel = payload.getOrDefault("llmModel", "");
 
-            String result = pomGenerator.generatePOMWithFallback(
+            return pomGenerator.generatePOMWithFallbackAsync(
                     xml, platform, className, packageName, baseClassName, mode,
                     llmApiUrl, llmApiKey, llmModel
-            );
-            return ResponseEntity.ok(result);
+            ).thenApply(ResponseEntity::ok)
+                    .exceptionally(this::pomError);
         } catch (Exception e) {
-            return ResponseEntity.badRequest().body("Error generating POM: " + e.getMessage());
+            return CompletableFuture.completedFuture(pomError(e));
         }
     }
+
+    private ResponseEntity<String> pomError(Throwable error) {
+        Throwable cause = LLMGateway.unwrap(error);
+        return LLMErrorResponses.status(cause, HttpStatus.BAD_REQUEST).body("Error generating POM: " + cause.getMessage());
+    }
 }
 
 
@@ -0,0 +1,94 @@
+package testleaf.controller;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * Bridges a streaming LLM generation to a browser over Server-Sent Events.
+ * Every content delta goes out as a {@code delta} event, the post-processed result
+ * (identical to the blocking endpoint's body) as a single {@code result} event,
+ * and failures as an {@code error} event.
+ * <p>
+ * Every event's data is one line of JSON, since generated text is full of newlines and
+ * SSE would end the data at the first blank line: {@code delta} carries
+ * {@code {"text": "..."}}, {@code result} carries {@code {"result": ...}} with the value the
+ * blocking endpoint returns, and {@code error} carries {@code {"error": "..."}}.
+ */
+@Component
+public class SseRelay {
+
+    private static final Logger LOGGER = Logger.getLogger(SseRelay.class.getName());
+
+    private final long timeoutMillis;
+
+    public SseRelay(@Value("${llm.gateway.read-timeout-ms:120000}") long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public <T> SseEmitter stream(Function<Consumer<String>, CompletableFuture<T>> generation) {
+        SseEmitter emitter = new SseEmitter(timeoutMillis);
+
+        CompletableFuture<T> result;
+        try {
+            result = generation.apply(delta -> send(emitter, "delta", delta));
+        } catch (RuntimeException e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+
+        CompletableFuture<T> pending = result;
+        emitter.onTimeout(() -> pending.cancel(true));
+        emitter.onError(error -> pending.cancel(true));
+
+        pending.whenComplete((value, error) -> {
+            try {
+                if (error == null) {
+                    emitter.send(SseEmitter.event().name("result")
+                            .data(Collections.singletonMap("result", value), MediaType.APPLICATION_JSON));
+                } else {
+                    LOGGER.warning("Streaming generation failed: " + error.getMessage());
+                    emitter.send(SseEmitter.event().name("error")
+                            .data(Collections.singletonMap("error", rootMessage(error)), MediaType.APPLICATION_JSON));
+                }
+                emitter.complete();
+            } catch (IOException | IllegalStateException e) {
+                // Client already went away; nothing left to deliver.
+                emitter.completeWithError(e);
+            }
+        });
+        return emitter;
+    }
+
+    /**
+     * Rejects a streaming request up front with a single {@code error} event.
+     */
+    public SseEmitter fail(String message) {
+        return stream(onDelta -> CompletableFuture.failedFuture(new IllegalArgumentException(message)));
+    }
+
+    private static void send(SseEmitter emitter, String event, String text) {
+        try {
+            emitter.send(SseEmitter.event().name(event)
+                    .data(Collections.singletonMap("text", text), MediaType.APPLICATION_JSON));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String rootMessage(Throwable error) {
+        Throwable cause = error;
+        while (cause.getCause() != null && cause.getCause() != cause) {
+            cause = cause.getCause();
+        }
+        return cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName();
+    }
+}
@@ -1,11 +1,16 @@
 package testleaf.controller;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import testleaf.llm.LLMCompletion;
+import testleaf.llm.LLMGateway;
 import testleaf.llm.LLMTestCaseGenerator;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 @RequestMapping("/api")
@@ -14,9 +19,11 @@ import org.springframework.web.bind.annotation.*;
 public class TestCaseGenerationController {
 
     private final LLMTestCaseGenerator llmTestCaseGenerator;
+    private final SseRelay sseRelay;
 
-    public TestCaseGenerationController(LLMTestCaseGenerator llmTestCaseGenerator) {
+    public TestCaseGenerationController(LLMTestCaseGenerator llmTestCaseGenerator, SseRelay sseRelay) {
         this.llmTestCaseGenerator = llmTestCaseGenerator;
+        this.sseRelay = sseRelay;
     }
 
     /**
@@ -38,48 +45,61 @@ public class TestCaseGenerationController {
      * }
      */
     @PostMapping("/generateTestCases")
-    public ResponseEntity<String> generateTestCases(@RequestBody TestCaseDetailsRequest request) {
+    public CompletableFuture<ResponseEntity<String>> generateTestCases(@RequestBody TestCaseDetailsRequest request) {
         try {
             // Convert TestType to a comma-separated string
             String testTypeString = convertTestTypeToString(request.getTestType());
 
             // Generate manual test cases using the LLM
-            String llmResponse = llmTestCaseGenerator.llmGenerateTestCases(
+            return llmTestCaseGenerator.llmGenerateTestCasesAsync(
                     testTypeString,
                     request.getUserStoryDescription(),
                     request.getApplicationUrl(),
                     request.getAcceptanceCriteria(),
                     request.getEpicDescription(),
-                    request.getAdditionalInstructions()
-            );
-
-            // Return the manual test cases as plain text
-            return ResponseEntity.ok(extractTestCases(llmResponse));
+                    request.getAdditionalInstructions(),
+                    request.isNoCache()
+            ).thenApply(llmResponse -> {
+                // Return the manual test cases as plain text
+                return ResponseEntity.ok(extractTestCases(llmResponse));
+            }).exceptionally(this::errorResponse);
         } catch (Exception e) {
-            e.printStackTrace();
-            return ResponseEntity.status(500).body("Error generating test cases: " + e.getMessage());
+            return CompletableFuture.completedFuture(errorResponse(e));
         }
     }
 
+    private ResponseEntity<String> errorResponse(Throwable error) {
+        Throwable cause = LLMGateway.unwrap(error);
+        cause.printStackTrace();
+        return LLMErrorResponses.status(cause, HttpStatus.INTERNAL_SERVER_ERROR).body("Error generating test cases: " + cause.getMessage());
+    }
+
+    /**
+     * Streaming variant of {@link #generateTestCases}. Relays the LLM output as Server-Sent Events and
+     * finishes with a {@code result} event carrying the same body the blocking endpoint returns.
+     */
+    @PostMapping(value = "/generateTestCases/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamTestCases(@RequestBody TestCaseDetailsRequest request) {
+        String testTypeString = convertTestTypeToString(request.getTestType());
+
+        return sseRelay.stream(onDelta -> llmTestCaseGenerator.streamTestCases(
+                testTypeString,
+                request.getUserStoryDescription(),
+                request.getApplicationUrl(),
+                request.getAcceptanceCriteria(),
+                request.getEpicDescription(),
+                request.getAdditionalInstructions(),
+                request.isNoCache(),
+                onDelta
+        ).thenApply(this::extractTestCaseContent));
+    }
+
     public String extractTestCases(String llmResponse) {
         String content = null;
         try {
-            ObjectMapper mapper = new ObjectMapper();
-            JsonNode rootNode = mapper.readTree(llmResponse);
-            JsonNode choicesNode = rootNode.path("choices");
-            if (choicesNode.isArray() && choicesNode.size() > 0) {
-                JsonNode messageNode = choicesNode.get(0).path("message");
-                content = messageNode.path("content").asText().trim();
-                if (content.contains("```json")) {
-                    int start = content.indexOf("```json");
-                    int end = content.lastIndexOf("```");
-                    if (start != -1 && end != -1 && end > start) {
-                        content = content.substring(start + "```json".length(), end).trim();
-                    }
-                } else if (content.contains("package")) {
-                    int index = content.indexOf("package");
-                    content = content.substring(index).trim();
-                }
+            String message = LLMCompletion.parse(llmResponse).getContent();
+            if (message != null) {
+                content = extractTestCaseContent(message);
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -87,6 +107,21 @@ public class TestCaseGenerationController {
         return content;
     }
 
+    private String extractTestCaseContent(String content) {
+        content = content.trim();
+        if (content.contains("```json")) {
+            int start = content.indexOf("```json");
+            int end = content.lastIndexOf("```");
+            if (start != -1 && end != -1 && end > start) {
+                content = content.substring(start + "```json".length(), end).trim();
+            }
+        } else if (content.contains("package")) {
+            int index = content.indexOf("package");
+            content = content.substring(index).trim();
+        }
+        return content;
+    }
+
     // DTO to capture the test case details from the UI
     public static class TestCaseDetailsRequest {
         private TestType testType; // Changed to TestType object
@@ -95,6 +130,7 @@ public class TestCaseGenerationController {
         private String acceptanceCriteria;
         private String epicDescription;
         private String additionalInstructions;
+        private boolean noCache;
 
         public TestType getTestType() {
             return testType;
@@ -143,6 +179,14 @@ public class TestCaseGenerationController {
         public void setAdditionalInstructions(String additionalInstructions) {
             this.additionalInstructions = additionalInstructions;
         }
+
+        public boolean isNoCache() {
+            return noCache;
+        }
+
+        public void setNoCache(boolean noCache) {
+            this.noCache = noCache;
+        }
     }
 
     // New DTO for testType
@@ -1,11 +1,16 @@
 package testleaf.controller;
 
+import testleaf.llm.LLMGateway;
 import testleaf.llm.LLMTestGenerator;
 import testleaf.llm.TestCodeGenerator;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 @RequestMapping("/api")
@@ -15,10 +20,12 @@ public class TestGenerationController {
 
     private final LLMTestGenerator llmTestGenerator;
     private final TestCodeGenerator testCodeGenerator;
+    private final SseRelay sseRelay;
 
-    public TestGenerationController(LLMTestGenerator llmTestGenerator, TestCodeGenerator testCodeGenerator) {
+    public TestGenerationController(LLMTestGenerator llmTestGenerator, TestCodeGenerator testCodeGenerator, SseRelay sseRelay) {
         this.llmTestGenerator = llmTestGenerator;
         this.testCodeGenerator = testCodeGenerator;
+        this.sseRelay = sseRelay;
     }
 
     /**
@@ -33,24 +40,47 @@ public class TestGenerationController {
      *  }
      */
     @PostMapping("/generateTests")
-    public ResponseEntity<String> generateTests(@RequestBody ApiDetailsRequest request) {
+    public CompletableFuture<ResponseEntity<String>> generateTests(@RequestBody ApiDetailsRequest request) {
         try {
-            String llmResponse = llmTestGenerator.generateTestCases(
+            return llmTestGenerator.generateTestCasesAsync(
                     request.getApiDetails(),
                     request.getTestTypes(),
                     request.getLlmApiUrl(),
                     request.getLlmApiKey(),
-                    request.getLlmModel()
-            );
-
-            String finalCode = testCodeGenerator.extractJavaCode(llmResponse);
-            return ResponseEntity.ok(finalCode);
+                    request.getLlmModel(),
+                    request.isNoCache()
+            ).thenApply(llmResponse -> {
+                String finalCode = testCodeGenerator.extractJavaCode(llmResponse);
+                return ResponseEntity.ok(finalCode);
+            }).exceptionally(this::errorResponse);
         } catch (Exception e) {
-            e.printStackTrace();
-            return ResponseEntity.status(500).body("Error generating test code: " + e.getMessage());
+            return CompletableFuture.completedFuture(errorResponse(e));
         }
     }
 
+    private ResponseEntity<String> errorResponse(Throwable error) {
+        Throwable cause = LLMGateway.unwrap(error);
+        cause.printStackTrace();
+        return LLMErrorResponses.status(cause, HttpStatus.INTERNAL_SERVER_ERROR).body("Error generating test code: " + cause.getMessage());
+    }
+
+    /**
+     * Streaming variant of {@link #generateTests}. Relays the LLM output as Server-Sent Events and
+     * finishes with a {@code result} event carrying the same code the blocking endpoint returns.
+     */
+    @PostMapping(value = "/generateTests/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamTests(@RequestBody ApiDetailsRequest request) {
+        return sseRelay.stream(onDelta -> llmTestGenerator.streamTestCases(
+                request.getApiDetails(),
+                request.getTestTypes(),
+                request.getLlmApiUrl(),
+                request.getLlmApiKey(),
+                request.getLlmModel(),
+                request.isNoCache(),
+                onDelta
+        ).thenApply(testCodeGenerator::extractJavaCode));
+    }
+
     // Updated DTO with field "testTypes" (plural) to match the React payload.
     public static class ApiDetailsRequest {
         private String apiDetails;
@@ -58,6 +88,7 @@ public class TestGenerationController {
         private String llmApiKey;
         private String llmModel;
         private String llmApiUrl;
+        private boolean noCache;
 
         // Getters and setters
         public String getApiDetails() { return apiDetails; }
@@ -74,5 +105,8 @@ public class TestGenerationController {
 
         public String getLlmApiUrl() { return llmApiUrl; }
         public void setLlmApiUrl(String llmApiUrl) { this.llmApiUrl = llmApiUrl; }
+
+        public boolean isNoCache() { return noCache; }
+        public void setNoCache(boolean noCache) { this.noCache = noCache; }
     }
 }
@@ -0,0 +1,184 @@
+package testleaf.llm;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The OpenAI-compatible chat completion request every generator sends:
+ * where to send it, which model, sampling settings and the message list.
+ * {@code maxTokens} is the generator's default budget; the gateway may size the
+ * budget actually sent from the prompt (see {@link LLMTokenBudget}).
+ */
+public class LLMChatRequest {
+
+    private static final byte[] MESSAGE_START = "{\"role\":\"".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NEXT_MESSAGE_START = ",{\"role\":\"".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] CONTENT_START = "\",\"content\":\"".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] MESSAGE_END = "\"}".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] BODY_END = "]}".getBytes(StandardCharsets.UTF_8);
+
+    private final String apiUrl;
+    private final String apiKey;
+    private final String model;
+    private double temperature;
+    private Double topP;
+    private int maxTokens;
+    private final List<Message> messages = new ArrayList<>();
+    private boolean noCache;
+    private String task;
+
+    public LLMChatRequest(String apiUrl, String apiKey, String model) {
+        this.apiUrl = apiUrl;
+        this.apiKey = apiKey;
+        this.model = model;
+    }
+
+    public LLMChatRequest temperature(double temperature) {
+        this.temperature = temperature;
+        return this;
+    }
+
+    public LLMChatRequest topP(Double topP) {
+        this.topP = topP;
+        return this;
+    }
+
+    public LLMChatRequest maxTokens(int maxTokens) {
+        this.maxTokens = maxTokens;
+        return this;
+    }
+
+    /**
+     * Skips the response cache lookup for this request; the fresh answer still refreshes the cache.
+     */
+    public LLMChatRequest noCache(boolean noCache) {
+        this.noCache = noCache;
+        return this;
+    }
+
+    /**
+     * Names the generator task (e.g. {@code pom}, {@code flaky}) so the router can offer the
+     * endpoints configured for it under {@code llm.routing.routes.<task>}.
+     */
+    public LLMChatRequest task(String task) {
+        this.task = task;
+        return this;
+    }
+
+    /**
+     * Copy of this request aimed at another endpoint/model, with the same settings and messages.
+     */
+    public LLMChatRequest withEndpoint(String apiUrl, String apiKey, String model) {
+        LLMChatRequest copy = new LLMChatRequest(apiUrl, apiKey, model)
+                .temperature(temperature)
+                .topP(topP)
+                .maxTokens(maxTokens)
+                .noCache(noCache)
+                .task(task);
+        copy.messages.addAll(messages);
+        return copy;
+    }
+
+    public LLMChatRequest message(String role, String content) {
+        return message(role, LLMPrompt.of(content));
+    }
+
+    public LLMChatRequest message(String role, LLMPrompt content) {
+        messages.add(new Message(role, content));
+        return this;
+    }
+
+    /**
+     * The JSON request body in the shape the providers expect, as fragments to be written
+     * back to back. Template text goes out as its shared pre-escaped bytes; only the model
+     * name, roles and bound values are escaped here.
+     */
+    public List<byte[]> toJsonBody(boolean stream) {
+        return toJsonBody(stream, maxTokens);
+    }
+
+    /**
+     * Same as {@link #toJsonBody(boolean)} but with {@code max_tokens} overridden, so a budget
+     * sized per call does not change the request's identity for caching.
+     */
+    public List<byte[]> toJsonBody(boolean stream, int maxTokensOverride) {
+        JsonStringEncoder encoder = JsonStringEncoder.getInstance();
+        StringBuilder head = new StringBuilder(96)
+                .append("{\"model\":\"").append(encoder.quoteAsString(model))
+                .append("\",\"temperature\":").append(temperature);
+        if (topP != null) {
+            head.append(",\"top_p\":").append(topP);
+        }
+        head.append(",\"max_tokens\":").append(maxTokensOverride);
+        if (stream) {
+            head.append(",\"stream\":true");
+        }
+        head.append(",\"messages\":[");
+
+        List<byte[]> body = new ArrayList<>(4 + messages.size() * 8);
+        body.add(head.toString().getBytes(StandardCharsets.UTF_8));
+        for (int i = 0; i < messages.size(); i++) {
+            Message message = messages.get(i);
+            body.add(i == 0 ? MESSAGE_START : NEXT_MESSAGE_START);
+            body.add(encoder.quoteAsUTF8(message.role()));
+            body.add(CONTENT_START);
+            message.content().appendJson(body);
+            body.add(MESSAGE_END);
+        }
+        body.add(BODY_END);
+        return body;
+    }
+
+    /**
+     * Locally estimated prompt tokens, including the chat formatting overhead.
+     */
+    public int estimatedPromptTokens() {
+        int tokens = LLMTokenEstimator.REPLY_PRIMING_TOKENS;
+        for (Message message : messages) {
+            tokens += LLMTokenEstimator.TOKENS_PER_MESSAGE + message.content().estimatedTokens();
+        }
+        return tokens;
+    }
+
+    public String getApiUrl() {
+        return apiUrl;
+    }
+
+    public String getApiKey() {
+        return apiKey;
+    }
+
+    public String getModel() {
+        return model;
+    }
+
+    public double getTemperature() {
+        return temperature;
+    }
+
+    public Double getTopP() {
+        return topP;
+    }
+
+    public int getMaxTokens() {
+        return maxTokens;
+    }
+
+    public List<Message> getMessages() {
+        return messages;
+    }
+
+    public boolean isNoCache() {
+        return noCache;
+    }
+
+    public String getTask() {
+        return task;
+    }
+
+    public record Message(String role, LLMPrompt content) {
+    }
+}
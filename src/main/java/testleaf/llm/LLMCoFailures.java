@@ -0,0 +1,96 @@
+package testleaf.llm;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Finds reported tests that fail together, typically because of one infrastructure or
+ * environment problem rather than anything flaky in the tests themselves. Two tests are linked
+ * when they failed in at least {@code minSharedBuckets} of the same time buckets and the Jaccard
+ * overlap of their failure buckets (shared over either) is at least {@code minJaccard}; groups
+ * are the connected components of those links. Each test of a group of two or more gets the
+ * group's number, counted from 1 in report order, and the names of the other members.
+ */
+final class LLMCoFailures {
+
+    private LLMCoFailures() {
+    }
+
+    static void group(List<LLMFlakyTestResult> results, LLMFlakyHistory history,
+                      double minJaccard, int minSharedBuckets) {
+        List<Integer> members = new ArrayList<>();
+        List<LLMFailureBuckets> buckets = new ArrayList<>();
+        long origin = Long.MAX_VALUE;
+        for (int i = 0; i < results.size(); i++) {
+            LLMFlakyTestStats stats = history.getStats(results.get(i).getTestName());
+            LLMFailureBuckets failed = stats == null ? null : stats.getFailureBuckets();
+            if (failed != null && failed.cardinality() >= Math.max(1, minSharedBuckets)) {
+                members.add(i);
+                buckets.add(failed);
+                origin = Math.min(origin, failed.first());
+            }
+        }
+
+        int n = members.size();
+        List<BitSet> aligned = new ArrayList<>(n);
+        for (LLMFailureBuckets failed : buckets) {
+            aligned.add(failed.alignedTo(origin));
+        }
+        int[] parent = new int[n];
+        for (int i = 0; i < n; i++) {
+            parent[i] = i;
+        }
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                BitSet shared = (BitSet) aligned.get(i).clone();
+                shared.and(aligned.get(j));
+                int both = shared.cardinality();
+                int either = aligned.get(i).cardinality() + aligned.get(j).cardinality() - both;
+                if (both >= minSharedBuckets && both >= minJaccard * either) {
+                    parent[root(parent, i)] = root(parent, j);
+                }
+            }
+        }
+
+        List<List<Integer>> groups = new ArrayList<>();
+        int[] groupOf = new int[n];
+        for (int i = 0; i < n; i++) {
+            groupOf[i] = -1;
+        }
+        for (int i = 0; i < n; i++) {
+            int root = root(parent, i);
+            if (groupOf[root] < 0) {
+                groupOf[root] = groups.size();
+                groups.add(new ArrayList<>());
+            }
+            groups.get(groupOf[root]).add(members.get(i));
+        }
+
+        int number = 0;
+        for (List<Integer> group : groups) {
+            if (group.size() < 2) {
+                continue;
+            }
+            number++;
+            for (int member : group) {
+                List<String> others = new ArrayList<>(group.size() - 1);
+                for (int other : group) {
+                    if (other != member) {
+                        others.add(results.get(other).getTestName());
+                    }
+                }
+                results.get(member).setCoFailureGroup(number);
+                results.get(member).setCoFailingTests(others);
+            }
+        }
+    }
+
+    private static int root(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+}
@@ -0,0 +1,188 @@
+package testleaf.llm;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * The parts of an OpenAI-style completion body the generators care about:
+ * {@code choices[0].message.content} (or {@code .delta.content} for stream chunks),
+ * {@code finish_reason}, {@code usage} and {@code error}. Parsed with a streaming
+ * {@link JsonParser} that skips everything else, so no {@code JsonNode} tree is built
+ * for large answers.
+ */
+public final class LLMCompletion {
+
+    private static final int MAX_BODY_IN_MESSAGE = 500;
+
+    private final String body;
+    private String content;
+    private String finishReason;
+    private String errorMessage;
+    private int promptTokens = -1;
+    private int completionTokens = -1;
+    private int totalTokens = -1;
+
+    private LLMCompletion(String body) {
+        this.body = body;
+    }
+
+    /**
+     * Parses a completion body. Malformed JSON fails with an {@link UncheckedIOException}.
+     */
+    public static LLMCompletion parse(String body) {
+        LLMCompletion completion = new LLMCompletion(body);
+        try (JsonParser parser = LLMJson.FACTORY.createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return completion;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                switch (field) {
+                    case "choices" -> completion.readChoices(parser, value);
+                    case "usage" -> completion.readUsage(parser, value);
+                    case "error" -> completion.readError(parser, value);
+                    default -> parser.skipChildren();
+                }
+            }
+            return completion;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void readChoices(JsonParser parser, JsonToken value) throws IOException {
+        if (value != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return;
+        }
+        JsonToken element = parser.nextToken();
+        if (element == JsonToken.START_OBJECT) {
+            content = "";
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken fieldValue = parser.nextToken();
+                if ((field.equals("message") || field.equals("delta")) && fieldValue == JsonToken.START_OBJECT) {
+                    readMessage(parser);
+                } else if (field.equals("finish_reason") && fieldValue == JsonToken.VALUE_STRING) {
+                    finishReason = parser.getText();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            element = parser.nextToken();
+        }
+        // Only the first choice is used; skip the rest.
+        while (element != null && element != JsonToken.END_ARRAY) {
+            parser.skipChildren();
+            element = parser.nextToken();
+        }
+    }
+
+    private void readMessage(JsonParser parser) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (field.equals("content") && value == JsonToken.VALUE_STRING) {
+                content = parser.getText();
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private void readUsage(JsonParser parser, JsonToken value) throws IOException {
+        if (value != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken fieldValue = parser.nextToken();
+            if (fieldValue != JsonToken.VALUE_NUMBER_INT) {
+                parser.skipChildren();
+                continue;
+            }
+            switch (field) {
+                case "prompt_tokens" -> promptTokens = parser.getIntValue();
+                case "completion_tokens" -> completionTokens = parser.getIntValue();
+                case "total_tokens" -> totalTokens = parser.getIntValue();
+                default -> { }
+            }
+        }
+    }
+
+    private void readError(JsonParser parser, JsonToken value) throws IOException {
+        if (value == JsonToken.VALUE_STRING) {
+            errorMessage = parser.getText();
+            return;
+        }
+        if (value != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return;
+        }
+        errorMessage = "";
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken fieldValue = parser.nextToken();
+            if (field.equals("message") && fieldValue == JsonToken.VALUE_STRING) {
+                errorMessage = parser.getText();
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * The first choice's content, failing the way the generators always have when the
+     * provider answered with an {@code error} or with something unrecognisable.
+     */
+    public String requireContent() {
+        if (content != null) {
+            return content;
+        } else if (errorMessage != null) {
+            throw new RuntimeException("LLM Error: " + errorMessage);
+        } else {
+            String excerpt = body.length() > MAX_BODY_IN_MESSAGE ? body.substring(0, MAX_BODY_IN_MESSAGE) + "..." : body;
+            throw new RuntimeException("Unexpected response from LLM: " + excerpt);
+        }
+    }
+
+    /**
+     * Content of the first choice, {@code null} when the body had no choices.
+     */
+    public String getContent() {
+        return content;
+    }
+
+    public String getFinishReason() {
+        return finishReason;
+    }
+
+    /**
+     * Provider error message, {@code null} when the body carried no {@code error}.
+     */
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    public boolean hasError() {
+        return errorMessage != null;
+    }
+
+    /** Token counts from {@code usage}; -1 when the provider did not report them. */
+    public int getPromptTokens() {
+        return promptTokens;
+    }
+
+    public int getCompletionTokens() {
+        return completionTokens;
+    }
+
+    public int getTotalTokens() {
+        return totalTokens;
+    }
+}
@@ -0,0 +1,103 @@
+package testleaf.llm;
+
+import java.util.Arrays;
+
+/**
+ * Streaming quantile sketch for durations in milliseconds, in the style of DDSketch: values
+ * fall into logarithmic buckets whose bounds grow by {@code (1 + a) / (1 - a)}, so any
+ * quantile is returned within a relative error of {@value #RELATIVE_ACCURACY}. Only the range
+ * of buckets between the smallest and largest value seen is allocated, a few hundred ints at
+ * most for durations between 1 ms and a day. Two sketches merge by adding bucket counts, which
+ * is exact and associative.
+ */
+public final class LLMDurationSketch {
+
+    static final double RELATIVE_ACCURACY = 0.02;
+    private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+
+    private int[] counts;
+    // Bucket index of counts[0].
+    private int offset;
+    private long zeroCount;
+    private long count;
+
+    public void add(long durationMillis) {
+        count++;
+        if (durationMillis <= 0) {
+            zeroCount++;
+            return;
+        }
+        int index = (int) Math.ceil(Math.log(durationMillis) / LOG_GAMMA);
+        cover(index, index);
+        counts[index - offset]++;
+    }
+
+    public void merge(LLMDurationSketch other) {
+        if (other == null || other.count == 0) {
+            return;
+        }
+        count += other.count;
+        zeroCount += other.zeroCount;
+        if (other.counts == null) {
+            return;
+        }
+        cover(other.offset, other.offset + other.counts.length - 1);
+        for (int i = 0; i < other.counts.length; i++) {
+            counts[other.offset + i - offset] += other.counts[i];
+        }
+    }
+
+    private void cover(int low, int high) {
+        if (counts == null) {
+            counts = new int[high - low + 1];
+            offset = low;
+            return;
+        }
+        int end = offset + counts.length - 1;
+        if (low >= offset && high <= end) {
+            return;
+        }
+        int newOffset = Math.min(offset, low);
+        int newEnd = Math.max(end, high);
+        int[] grown = new int[newEnd - newOffset + 1];
+        System.arraycopy(counts, 0, grown, offset - newOffset, counts.length);
+        counts = grown;
+        offset = newOffset;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * The value at quantile {@code q} (0..1), or 0 for an empty sketch.
+     */
+    public long quantile(double q) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.floor(Math.max(0, Math.min(1, q)) * (count - 1));
+        if (rank < zeroCount) {
+            return 0;
+        }
+        long seen = zeroCount;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen > rank) {
+                // Midpoint of the bucket (gamma^(k-1), gamma^k], which bounds the relative error.
+                return Math.round(2 * Math.pow(GAMMA, offset + i) / (GAMMA + 1));
+            }
+        }
+        return Math.round(Math.pow(GAMMA, offset + counts.length - 1));
+    }
+
+    LLMDurationSketch copy() {
+        LLMDurationSketch copy = new LLMDurationSketch();
+        copy.count = count;
+        copy.zeroCount = zeroCount;
+        copy.offset = offset;
+        copy.counts = counts == null ? null : Arrays.copyOf(counts, counts.length);
+        return copy;
+    }
+}
@@ -0,0 +1,80 @@
+package testleaf.llm;
+
+import java.time.LocalDateTime;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * A group of failures sharing one normalized error message: how often it occurred, when it was
+ * last seen, and one raw message as an example.
+ */
+public class LLMErrorSignature {
+
+    private final String signature;
+    // Other normalized messages folded into this one by clustering; null until there are any.
+    private Set<String> variants;
+    private long count;
+    private String example;
+    private LocalDateTime lastSeen;
+
+    public LLMErrorSignature(String signature) {
+        this.signature = signature;
+    }
+
+    void add(String rawMessage, LocalDateTime executedAt) {
+        count++;
+        if (example == null || (executedAt != null && (lastSeen == null || !executedAt.isBefore(lastSeen)))) {
+            example = rawMessage;
+        }
+        if (executedAt != null && (lastSeen == null || executedAt.isAfter(lastSeen))) {
+            lastSeen = executedAt;
+        }
+    }
+
+    /**
+     * Adds the occurrences of {@code other}, which is folded into this signature.
+     */
+    void merge(LLMErrorSignature other) {
+        count += other.count;
+        if (other.variants != null || !other.signature.equals(signature)) {
+            if (variants == null) {
+                variants = new LinkedHashSet<>();
+                variants.add(signature);
+            }
+            variants.addAll(other.variants());
+        }
+        if (example == null || (other.lastSeen != null && (lastSeen == null || other.lastSeen.isAfter(lastSeen)))) {
+            example = other.example;
+            lastSeen = other.lastSeen;
+        }
+    }
+
+    LLMErrorSignature copy() {
+        LLMErrorSignature copy = new LLMErrorSignature(signature);
+        copy.merge(this);
+        return copy;
+    }
+
+    /**
+     * The normalized messages grouped under this signature.
+     */
+    Set<String> variants() {
+        return variants == null ? Set.of(signature) : variants;
+    }
+
+    public String getSignature() {
+        return signature;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public String getExample() {
+        return example;
+    }
+
+    public LocalDateTime getLastSeen() {
+        return lastSeen;
+    }
+}
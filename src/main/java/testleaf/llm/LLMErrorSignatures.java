@@ -0,0 +1,242 @@
+package testleaf.llm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns raw error messages into signatures. {@link #normalize} masks the parts that change from
+ * run to run (numbers, timestamps, addresses, hex and UUID ids) and collapses whitespace;
+ * {@link #cluster} then groups signatures that are still near-duplicates, using MinHash over
+ * token bigrams and LSH banding to find candidate pairs without comparing every pair.
+ */
+public final class LLMErrorSignatures {
+
+    static final String NUMBER = "<N>";
+    static final String ID = "<ID>";
+    static final int MAX_SIGNATURE_LENGTH = 400;
+
+    private static final int HASHES = 64;
+    private static final int BANDS = 16;
+    private static final int ROWS_PER_BAND = HASHES / BANDS;
+    private static final double SIMILARITY_THRESHOLD = 0.6;
+    private static final long[] SEEDS = new long[HASHES];
+
+    static {
+        long seed = 0x9E3779B97F4A7C15L;
+        for (int i = 0; i < HASHES; i++) {
+            seed = mix(seed + 0x9E3779B97F4A7C15L);
+            SEEDS[i] = seed;
+        }
+    }
+
+    private LLMErrorSignatures() {
+    }
+
+    public static String normalize(String message) {
+        if (message == null) {
+            return null;
+        }
+        StringBuilder out = new StringBuilder(Math.min(message.length(), MAX_SIGNATURE_LENGTH));
+        int length = message.length();
+        int i = 0;
+        while (i < length && out.length() < MAX_SIGNATURE_LENGTH) {
+            char c = message.charAt(i);
+            if (Character.isWhitespace(c)) {
+                while (i < length && Character.isWhitespace(message.charAt(i))) {
+                    i++;
+                }
+                if (out.length() > 0) {
+                    out.append(' ');
+                }
+            } else if (Character.isLetterOrDigit(c)) {
+                int end = wordEnd(message, i);
+                appendWord(out, message, i, end);
+                i = end;
+            } else {
+                out.append(c);
+                i++;
+            }
+        }
+        int last = out.length() - 1;
+        if (last >= 0 && out.charAt(last) == ' ') {
+            out.setLength(last);
+        }
+        return out.toString();
+    }
+
+    /**
+     * A word is a run of letters and digits, including separators that sit between two of
+     * them, so {@code 10.0.0.1:8080} or {@code 2024-05-01T10:00:00} stay in one piece.
+     */
+    private static int wordEnd(String text, int start) {
+        int i = start;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                i++;
+            } else if (isSeparator(c) && i + 1 < text.length() && Character.isLetterOrDigit(text.charAt(i + 1))) {
+                i++;
+            } else {
+                break;
+            }
+        }
+        return i;
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == '.' || c == ':' || c == '-' || c == '_' || c == '/';
+    }
+
+    private static void appendWord(StringBuilder out, String text, int start, int end) {
+        boolean digits = false;
+        boolean letters = false;
+        boolean hexOnly = true;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (Character.isDigit(c)) {
+                digits = true;
+            } else if (Character.isLetter(c)) {
+                letters = true;
+                hexOnly &= Character.digit(c, 16) >= 0;
+            }
+        }
+        if (!digits) {
+            out.append(text, start, end);
+        } else if (!letters) {
+            out.append(NUMBER);
+        } else if ((hexOnly && end - start >= 8) || text.startsWith("0x", start)) {
+            out.append(ID);
+        } else {
+            // Mixed words such as user1234 or 2024-05-01T10:00:00Z: mask each numeric stretch.
+            int i = start;
+            while (i < end) {
+                char c = text.charAt(i);
+                if (Character.isDigit(c)) {
+                    while (i < end && (Character.isDigit(text.charAt(i)) || isNumericSeparator(text, i, end))) {
+                        i++;
+                    }
+                    out.append(NUMBER);
+                } else {
+                    out.append(c);
+                    i++;
+                }
+            }
+        }
+    }
+
+    private static boolean isNumericSeparator(String text, int i, int end) {
+        char c = text.charAt(i);
+        return (isSeparator(c) || c == 'T') && i + 1 < end && Character.isDigit(text.charAt(i + 1));
+    }
+
+    /**
+     * Folds near-duplicate signatures (estimated Jaccard similarity of token bigrams at least
+     * {@value #SIMILARITY_THRESHOLD}) into one, keeping the most frequent member's text. The
+     * inputs are not modified. The result is ordered by count, most frequent first.
+     */
+    public static List<LLMErrorSignature> cluster(List<LLMErrorSignature> signatures) {
+        int n = signatures.size();
+        if (n < 2) {
+            List<LLMErrorSignature> single = new ArrayList<>();
+            signatures.forEach(signature -> single.add(signature.copy()));
+            return single;
+        }
+
+        long[][] sketches = new long[n][];
+        for (int i = 0; i < n; i++) {
+            sketches[i] = minHash(signatures.get(i).getSignature());
+        }
+
+        int[] parent = new int[n];
+        Arrays.setAll(parent, i -> i);
+        for (int band = 0; band < BANDS; band++) {
+            Map<Long, List<Integer>> buckets = new HashMap<>();
+            for (int i = 0; i < n; i++) {
+                long key = band;
+                for (int row = 0; row < ROWS_PER_BAND; row++) {
+                    key = mix(key ^ sketches[i][band * ROWS_PER_BAND + row]);
+                }
+                List<Integer> bucket = buckets.computeIfAbsent(key, k -> new ArrayList<>());
+                for (int candidate : bucket) {
+                    if (find(parent, candidate) != find(parent, i)
+                            && similarity(sketches[candidate], sketches[i]) >= SIMILARITY_THRESHOLD) {
+                        parent[find(parent, i)] = find(parent, candidate);
+                    }
+                }
+                bucket.add(i);
+            }
+        }
+
+        Map<Integer, List<LLMErrorSignature>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < n; i++) {
+            groups.computeIfAbsent(find(parent, i), root -> new ArrayList<>()).add(signatures.get(i));
+        }
+        List<LLMErrorSignature> clusters = new ArrayList<>(groups.size());
+        for (List<LLMErrorSignature> members : groups.values()) {
+            members.sort(Comparator.comparingLong(LLMErrorSignature::getCount).reversed());
+            LLMErrorSignature cluster = members.get(0).copy();
+            for (int i = 1; i < members.size(); i++) {
+                cluster.merge(members.get(i));
+            }
+            clusters.add(cluster);
+        }
+        clusters.sort(Comparator.comparingLong(LLMErrorSignature::getCount).reversed()
+                .thenComparing(LLMErrorSignature::getSignature));
+        return clusters;
+    }
+
+    private static long[] minHash(String signature) {
+        long[] sketch = new long[HASHES];
+        Arrays.fill(sketch, Long.MAX_VALUE);
+        String[] tokens = signature.split("[^\\p{L}\\p{N}<>]+");
+        if (tokens.length == 0) {
+            // Only punctuation, e.g. "..." or "-": the signature itself is the one shingle.
+            tokens = new String[]{signature};
+        }
+        int shingles = Math.max(1, tokens.length - 1);
+        for (int s = 0; s < shingles; s++) {
+            String shingle = tokens.length < 2 ? tokens[0] : tokens[s] + ' ' + tokens[s + 1];
+            long base = mix(shingle.hashCode());
+            for (int h = 0; h < HASHES; h++) {
+                long value = mix(base ^ SEEDS[h]);
+                if (value < sketch[h]) {
+                    sketch[h] = value;
+                }
+            }
+        }
+        return sketch;
+    }
+
+    private static double similarity(long[] a, long[] b) {
+        int equal = 0;
+        for (int i = 0; i < HASHES; i++) {
+            if (a[i] == b[i]) {
+                equal++;
+            }
+        }
+        return (double) equal / HASHES;
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    // MurmurHash3's 64-bit finalizer.
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB93E53A04345L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,76 @@
+package testleaf.llm;
+
+import java.util.BitSet;
+
+/**
+ * The time buckets in which one test failed, as a {@link BitSet} offset from a base bucket, so
+ * its size follows the span between the test's failures rather than their absolute time. The
+ * span is capped at {@link #MAX_BUCKETS}; buckets older than that before the latest one are
+ * dropped. Adding buckets in any order, or merging partials in any grouping, gives the same set
+ * as long as the span stays under the cap.
+ */
+final class LLMFailureBuckets {
+
+    // About four years of 10 minute buckets, 32 KB at most.
+    static final int MAX_BUCKETS = 1 << 18;
+
+    private BitSet bits = new BitSet();
+    private long base;
+
+    void add(long bucket) {
+        if (bits.isEmpty()) {
+            base = bucket;
+            bits.set(0);
+            return;
+        }
+        long last = base + bits.length() - 1;
+        if (bucket <= last - MAX_BUCKETS) {
+            return;
+        }
+        if (bucket < base) {
+            // Leave room below the new bucket, so input in reverse time order is not shifted per bucket.
+            long newBase = Math.max(bucket - bits.length(), last - MAX_BUCKETS + 1);
+            bits = shifted(bits, base - newBase);
+            base = newBase;
+        } else if (bucket - base >= MAX_BUCKETS) {
+            long newBase = bucket - MAX_BUCKETS + 1;
+            bits = newBase - base >= bits.length() ? new BitSet() : bits.get((int) (newBase - base), bits.length());
+            base = newBase;
+        }
+        bits.set((int) (bucket - base));
+    }
+
+    void merge(LLMFailureBuckets other) {
+        for (int i = other.bits.nextSetBit(0); i >= 0; i = other.bits.nextSetBit(i + 1)) {
+            add(other.base + i);
+        }
+    }
+
+    boolean isEmpty() {
+        return bits.isEmpty();
+    }
+
+    int cardinality() {
+        return bits.cardinality();
+    }
+
+    long first() {
+        return base + bits.nextSetBit(0);
+    }
+
+    /**
+     * The buckets as bits offset from {@code origin}, which must not be after {@link #first()}.
+     */
+    BitSet alignedTo(long origin) {
+        long offset = base - origin;
+        return offset == 0 ? (BitSet) bits.clone() : shifted(bits, offset);
+    }
+
+    private static BitSet shifted(BitSet bits, long offset) {
+        BitSet moved = new BitSet((int) (bits.length() + offset));
+        for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+            moved.set((int) (i + offset));
+        }
+        return moved;
+    }
+}
@@ -0,0 +1,327 @@
+package testleaf.llm;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+/**
+ * Flakiness scores for the tests of one {@link LLMFlakyHistory}, updated run by run and kept
+ * in primitive arrays indexed by the history's test id.
+ * <ul>
+ *   <li><b>Flip rate</b>: pass/fail changes per transition between consecutive runs in time
+ *   order. Runs arriving out of order that fall inside the span seen so far are left out, and
+ *   partials whose time spans interleave are merged without a boundary transition; the rate
+ *   over such subsequences estimates the rate over the whole sequence.</li>
+ *   <li><b>Fail probability interval</b>: the central {@value #CREDIBLE_LEVEL} credible interval
+ *   of a Beta(1 + failures, 1 + passes) posterior, i.e. a uniform prior.</li>
+ *   <li><b>Recency-weighted fail rate</b>: each run weighted by {@code 2^(-age / half-life)},
+ *   age measured from the newest run. Sums are kept relative to the newest time seen and
+ *   rescaled when a newer run arrives, so no second pass is needed.</li>
+ * </ul>
+ * A test is {@link Classification#FLAKY} when its outcome flips often enough; consistently
+ * failing tests are {@link Classification#BROKEN} and are not worth an LLM suggestion.
+ */
+public final class LLMFlakinessScores {
+
+    public enum Classification { FLAKY, BROKEN, FIXED, STABLE }
+
+    static final double CREDIBLE_LEVEL = 0.95;
+
+    private static final long NO_TIME = Long.MIN_VALUE;
+    private static final byte NONE = -1;
+    private static final byte PASSED = 0;
+    private static final byte FAILED = 1;
+    // Lanczos approximation coefficients (g = 7, n = 9) for logGamma.
+    private static final double[] LANCZOS = {
+            0.99999999999980993, 676.5203681218851, -1259.1392167224028, 771.32342877765313,
+            -176.61502916214059, 12.507343278686905, -0.13857109526572012, 9.9843695780195716e-6,
+            1.5056327351493116e-7};
+
+    private final double halfLifeSeconds;
+
+    private int size;
+    private long[] runs = new long[16];
+    private long[] fails = new long[16];
+    private long[] transitions = new long[16];
+    private long[] flips = new long[16];
+    private byte[] firstStatus = new byte[16];
+    private byte[] lastStatus = new byte[16];
+    private long[] firstTime = new long[16];
+    private long[] lastTime = new long[16];
+    private double[] decayedRuns = new double[16];
+    private double[] decayedFails = new double[16];
+    private long[] decayReference = new long[16];
+
+    public LLMFlakinessScores(long halfLifeSeconds) {
+        this.halfLifeSeconds = Math.max(1, halfLifeSeconds);
+    }
+
+    /**
+     * Makes room for test ids up to {@code id}; ids are handed out densely from zero.
+     */
+    void ensure(int id) {
+        if (id < size) {
+            return;
+        }
+        if (id >= runs.length) {
+            int capacity = Math.max(id + 1, runs.length * 2);
+            runs = Arrays.copyOf(runs, capacity);
+            fails = Arrays.copyOf(fails, capacity);
+            transitions = Arrays.copyOf(transitions, capacity);
+            flips = Arrays.copyOf(flips, capacity);
+            firstStatus = Arrays.copyOf(firstStatus, capacity);
+            lastStatus = Arrays.copyOf(lastStatus, capacity);
+            firstTime = Arrays.copyOf(firstTime, capacity);
+            lastTime = Arrays.copyOf(lastTime, capacity);
+            decayedRuns = Arrays.copyOf(decayedRuns, capacity);
+            decayedFails = Arrays.copyOf(decayedFails, capacity);
+            decayReference = Arrays.copyOf(decayReference, capacity);
+        }
+        for (int i = size; i <= id; i++) {
+            firstStatus[i] = NONE;
+            lastStatus[i] = NONE;
+            firstTime[i] = NO_TIME;
+            lastTime[i] = NO_TIME;
+            decayReference[i] = NO_TIME;
+        }
+        size = id + 1;
+    }
+
+    void add(int id, boolean failed, LocalDateTime executedAt) {
+        ensure(id);
+        byte status = failed ? FAILED : PASSED;
+        long time = executedAt == null ? NO_TIME : executedAt.toEpochSecond(ZoneOffset.UTC);
+        runs[id]++;
+        if (failed) {
+            fails[id]++;
+        }
+        addTransition(id, status, time);
+        if (time != NO_TIME) {
+            decay(id, time, 1.0, failed ? 1.0 : 0.0);
+        }
+    }
+
+    private void addTransition(int id, byte status, long time) {
+        if (lastStatus[id] == NONE) {
+            firstStatus[id] = lastStatus[id] = status;
+            firstTime[id] = lastTime[id] = time;
+        } else if (time == NO_TIME || lastTime[id] == NO_TIME || time >= lastTime[id]) {
+            transitions[id]++;
+            if (status != lastStatus[id]) {
+                flips[id]++;
+            }
+            lastStatus[id] = status;
+            if (time != NO_TIME) {
+                lastTime[id] = time;
+            }
+        } else if (time <= firstTime[id]) {
+            transitions[id]++;
+            if (status != firstStatus[id]) {
+                flips[id]++;
+            }
+            firstStatus[id] = status;
+            firstTime[id] = time;
+        }
+    }
+
+    /**
+     * Adds weighted counts observed at {@code time}, rescaling the sums if it is the newest.
+     */
+    private void decay(int id, long time, double runWeight, double failWeight) {
+        if (decayReference[id] == NO_TIME) {
+            decayReference[id] = time;
+        } else if (time > decayReference[id]) {
+            double factor = Math.pow(2, -(time - decayReference[id]) / halfLifeSeconds);
+            decayedRuns[id] *= factor;
+            decayedFails[id] *= factor;
+            decayReference[id] = time;
+        } else {
+            double factor = Math.pow(2, -(decayReference[id] - time) / halfLifeSeconds);
+            runWeight *= factor;
+            failWeight *= factor;
+        }
+        decayedRuns[id] += runWeight;
+        decayedFails[id] += failWeight;
+    }
+
+    /**
+     * Folds test {@code otherId} of {@code other} into test {@code id} of this table.
+     */
+    void merge(int id, LLMFlakinessScores other, int otherId) {
+        ensure(id);
+        if (other.runs[otherId] == 0) {
+            return;
+        }
+        if (runs[id] == 0) {
+            copy(id, other, otherId);
+            return;
+        }
+        runs[id] += other.runs[otherId];
+        fails[id] += other.fails[otherId];
+        transitions[id] += other.transitions[otherId];
+        flips[id] += other.flips[otherId];
+
+        if (lastTime[id] == NO_TIME || other.firstTime[otherId] == NO_TIME || lastTime[id] <= other.firstTime[otherId]) {
+            // The other partial follows this one.
+            transitions[id]++;
+            if (lastStatus[id] != other.firstStatus[otherId]) {
+                flips[id]++;
+            }
+            lastStatus[id] = other.lastStatus[otherId];
+            lastTime[id] = Math.max(lastTime[id], other.lastTime[otherId]);
+        } else if (other.lastTime[otherId] <= firstTime[id]) {
+            // The other partial precedes this one.
+            transitions[id]++;
+            if (other.lastStatus[otherId] != firstStatus[id]) {
+                flips[id]++;
+            }
+            firstStatus[id] = other.firstStatus[otherId];
+            firstTime[id] = other.firstTime[otherId];
+        } else {
+            // Interleaved spans: keep the outer ends, add no boundary transition.
+            if (other.firstTime[otherId] < firstTime[id]) {
+                firstStatus[id] = other.firstStatus[otherId];
+                firstTime[id] = other.firstTime[otherId];
+            }
+            if (other.lastTime[otherId] > lastTime[id]) {
+                lastStatus[id] = other.lastStatus[otherId];
+                lastTime[id] = other.lastTime[otherId];
+            }
+        }
+
+        if (other.decayReference[otherId] != NO_TIME) {
+            decay(id, other.decayReference[otherId], other.decayedRuns[otherId], other.decayedFails[otherId]);
+        }
+    }
+
+    private void copy(int id, LLMFlakinessScores other, int otherId) {
+        runs[id] = other.runs[otherId];
+        fails[id] = other.fails[otherId];
+        transitions[id] = other.transitions[otherId];
+        flips[id] = other.flips[otherId];
+        firstStatus[id] = other.firstStatus[otherId];
+        lastStatus[id] = other.lastStatus[otherId];
+        firstTime[id] = other.firstTime[otherId];
+        lastTime[id] = other.lastTime[otherId];
+        decayedRuns[id] = other.decayedRuns[otherId];
+        decayedFails[id] = other.decayedFails[otherId];
+        decayReference[id] = other.decayReference[otherId];
+    }
+
+    public double flipRate(int id) {
+        return transitions[id] == 0 ? 0.0 : (double) flips[id] / transitions[id];
+    }
+
+    /**
+     * Fail rate with each run weighted by its recency; the plain fail rate when no run has a
+     * timestamp.
+     */
+    public double recencyWeightedFailRate(int id) {
+        if (decayedRuns[id] > 0) {
+            return decayedFails[id] / decayedRuns[id];
+        }
+        return runs[id] == 0 ? 0.0 : (double) fails[id] / runs[id];
+    }
+
+    public double failProbabilityLow(int id) {
+        return betaQuantile((1 - CREDIBLE_LEVEL) / 2, 1 + fails[id], 1 + runs[id] - fails[id]);
+    }
+
+    public double failProbabilityHigh(int id) {
+        return betaQuantile(1 - (1 - CREDIBLE_LEVEL) / 2, 1 + fails[id], 1 + runs[id] - fails[id]);
+    }
+
+    /**
+     * FLAKY when both outcomes occur and the outcome flips at least {@code minFlipRate} of the
+     * time, unless the recent history is failing throughout ({@code brokenRecentFailRate});
+     * otherwise BROKEN if failures dominate recently, FIXED if they do not.
+     */
+    public Classification classify(int id, double minFlipRate, double brokenRecentFailRate) {
+        if (fails[id] == 0) {
+            return Classification.STABLE;
+        }
+        if (fails[id] == runs[id]) {
+            return Classification.BROKEN;
+        }
+        double recent = recencyWeightedFailRate(id);
+        if (flipRate(id) >= minFlipRate) {
+            return recent >= brokenRecentFailRate ? Classification.BROKEN : Classification.FLAKY;
+        }
+        return recent >= 0.5 ? Classification.BROKEN : Classification.FIXED;
+    }
+
+    /**
+     * Inverse of the regularized incomplete beta function, by bisection.
+     */
+    static double betaQuantile(double p, double a, double b) {
+        double low = 0;
+        double high = 1;
+        for (int i = 0; i < 60; i++) {
+            double mid = (low + high) / 2;
+            if (regularizedBeta(mid, a, b) < p) {
+                low = mid;
+            } else {
+                high = mid;
+            }
+        }
+        return (low + high) / 2;
+    }
+
+    /**
+     * I_x(a, b) via its continued fraction (modified Lentz), as in Numerical Recipes.
+     */
+    static double regularizedBeta(double x, double a, double b) {
+        if (x <= 0) {
+            return 0;
+        }
+        if (x >= 1) {
+            return 1;
+        }
+        double logFront = logGamma(a + b) - logGamma(a) - logGamma(b) + a * Math.log(x) + b * Math.log(1 - x);
+        if (x < (a + 1) / (a + b + 2)) {
+            return Math.exp(logFront) * betaContinuedFraction(x, a, b) / a;
+        }
+        return 1 - Math.exp(logFront) * betaContinuedFraction(1 - x, b, a) / b;
+    }
+
+    private static double betaContinuedFraction(double x, double a, double b) {
+        final double tiny = 1e-300;
+        double c = 1;
+        double d = 1 - (a + b) * x / (a + 1);
+        d = 1 / (Math.abs(d) < tiny ? tiny : d);
+        double h = d;
+        for (int m = 1; m <= 300; m++) {
+            int m2 = 2 * m;
+            double numerator = m * (b - m) * x / ((a + m2 - 1) * (a + m2));
+            d = 1 / nonZero(1 + numerator * d, tiny);
+            c = nonZero(1 + numerator / c, tiny);
+            h *= d * c;
+            numerator = -(a + m) * (a + b + m) * x / ((a + m2) * (a + m2 + 1));
+            d = 1 / nonZero(1 + numerator * d, tiny);
+            c = nonZero(1 + numerator / c, tiny);
+            double delta = d * c;
+            h *= delta;
+            if (Math.abs(delta - 1) < 1e-12) {
+                break;
+            }
+        }
+        return h;
+    }
+
+    private static double nonZero(double value, double tiny) {
+        return Math.abs(value) < tiny ? tiny : value;
+    }
+
+    static double logGamma(double x) {
+        if (x < 0.5) {
+            return Math.log(Math.PI / Math.sin(Math.PI * x)) - logGamma(1 - x);
+        }
+        x -= 1;
+        double sum = LANCZOS[0];
+        double t = x + 7.5;
+        for (int i = 1; i < LANCZOS.length; i++) {
+            sum += LANCZOS[i] / (x + i);
+        }
+        return 0.5 * Math.log(2 * Math.PI) + (x + 0.5) * Math.log(t) - t + Math.log(sum);
+    }
+}
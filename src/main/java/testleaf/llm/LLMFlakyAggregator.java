@@ -0,0 +1,162 @@
+package testleaf.llm;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Aggregates a run history on several cores. The parsing thread routes each record by test name
+ * to one of {@code parallelism} partial {@link LLMFlakyHistory histories}, collecting it in that
+ * partial's batch; full batches are folded on the executor, one at a time and in order per
+ * partial. Every test therefore lives in exactly one partial and sees its runs in input order,
+ * which order-sensitive scores such as the flip rate need. {@link #finish()} merges the
+ * partials. At most {@code 2 * parallelism} batches are in flight, so the parser blocks rather
+ * than buffering the input, and memory stays bounded by the batch size and the number of
+ * distinct tests. {@code LLMFlakyAggregationBenchmark}, in the {@code benchmarks} profile,
+ * measures it against the sequential path.
+ */
+public final class LLMFlakyAggregator {
+
+    private final Executor executor;
+    private final int parallelism;
+    private final int batchSize;
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+    private final LLMFlakyHistory[] partials;
+    private final Batch[] pending;
+    // The last fold scheduled per partial; the next one is chained behind it.
+    private final CompletableFuture<?>[] tails;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    public LLMFlakyAggregator(Executor executor, int parallelism, int batchSize, Supplier<LLMFlakyHistory> histories) {
+        this.executor = executor;
+        this.parallelism = Math.max(1, parallelism);
+        this.batchSize = Math.max(1, batchSize);
+        this.maxInFlight = 2 * this.parallelism;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.partials = new LLMFlakyHistory[this.parallelism];
+        this.pending = new Batch[this.parallelism];
+        this.tails = new CompletableFuture<?>[this.parallelism];
+        for (int i = 0; i < this.parallelism; i++) {
+            partials[i] = histories.get();
+            pending[i] = new Batch(this.batchSize);
+            tails[i] = CompletableFuture.completedFuture(null);
+        }
+    }
+
+    public void add(String testName, String status, long duration, String errorMsg, LocalDateTime executedAt) {
+        int partition = partitionOf(testName);
+        Batch batch = pending[partition];
+        batch.add(testName, status, duration, errorMsg, executedAt);
+        if (batch.size == batchSize) {
+            dispatch(partition);
+        }
+    }
+
+    /**
+     * Waits for the outstanding batches and merges the partial histories.
+     */
+    public LLMFlakyHistory finish() {
+        for (int partition = 0; partition < parallelism; partition++) {
+            if (pending[partition].size > 0) {
+                dispatch(partition);
+            }
+        }
+        acquire(maxInFlight);
+        rethrowFailure();
+
+        // Pairwise tree reduction: log2(parallelism) rounds of merges.
+        List<LLMFlakyHistory> round = new ArrayList<>(Arrays.asList(partials));
+        while (round.size() > 1) {
+            List<LLMFlakyHistory> next = new ArrayList<>((round.size() + 1) / 2);
+            for (int i = 0; i < round.size(); i += 2) {
+                LLMFlakyHistory left = round.get(i);
+                if (i + 1 < round.size()) {
+                    left.merge(round.get(i + 1));
+                }
+                next.add(left);
+            }
+            round = next;
+        }
+        return round.get(0);
+    }
+
+    private int partitionOf(String testName) {
+        int hash = testName == null ? 0 : testName.hashCode();
+        return Math.floorMod(hash ^ (hash >>> 16), parallelism);
+    }
+
+    private void dispatch(int partition) {
+        rethrowFailure();
+        Batch full = pending[partition];
+        pending[partition] = new Batch(batchSize);
+        acquire(1);
+        LLMFlakyHistory partial = partials[partition];
+        tails[partition] = tails[partition].thenRunAsync(() -> fold(partial, full), executor);
+    }
+
+    private void fold(LLMFlakyHistory partial, Batch full) {
+        try {
+            for (int i = 0; i < full.size; i++) {
+                partial.add(full.testNames[i], full.statuses[i], full.durations[i], full.errorMsgs[i], full.executedAt[i]);
+            }
+        } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+        } finally {
+            inFlight.release();
+        }
+    }
+    private void acquire(int permits) {
+        try {
+            inFlight.acquire(permits);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while aggregating test history", e);
+        }
+    }
+
+    private void rethrowFailure() {
+        Throwable t = failure.get();
+        if (t instanceof RuntimeException runtime) {
+            throw runtime;
+        }
+        if (t instanceof Error error) {
+            throw error;
+        }
+        if (t != null) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    private static final class Batch {
+        private final String[] testNames;
+        private final String[] statuses;
+        private final long[] durations;
+        private final String[] errorMsgs;
+        private final LocalDateTime[] executedAt;
+        private int size;
+
+        private Batch(int capacity) {
+            testNames = new String[capacity];
+            statuses = new String[capacity];
+            durations = new long[capacity];
+            errorMsgs = new String[capacity];
+            executedAt = new LocalDateTime[capacity];
+        }
+
+        private void add(String testName, String status, long duration, String errorMsg, LocalDateTime time) {
+            testNames[size] = testName;
+            statuses[size] = status;
+            durations[size] = duration;
+            errorMsgs[size] = errorMsg;
+            executedAt[size] = time;
+            size++;
+        }
+    }
+}
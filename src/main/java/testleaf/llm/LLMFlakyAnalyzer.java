@@ -1,31 +1,219 @@
 package testleaf.llm;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
+import java.time.temporal.TemporalAccessor;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 import java.util.stream.Collectors;
 
 @Service
 public class LLMFlakyAnalyzer {
 
+    private static final Logger LOGGER = Logger.getLogger(LLMFlakyAnalyzer.class.getName());
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final byte[] ZIP_MAGIC = {'P', 'K', 3, 4};
+    // Failure text kept when a report gives no message attribute; only its first line is used.
+    private static final int MAX_FAILURE_TEXT = 4096;
+    private static final XMLInputFactory XML_INPUT = newXmlInputFactory();
+
+    private final LLMFlakySuggester suggester;
+    private final LLMFlakyRunStore runStore;
+    private final int topN;
+    private final int recentRunsPerTest;
+    private final long halfLifeSeconds;
+    private final double minFlipRate;
+    private final double brokenRecentFailRate;
+    private final long driftWindowSeconds;
+    private final double driftRatio;
+    private final int parallelism;
+    private final int batchSize;
+    private final long failureBucketSeconds;
+    private final double minCoFailureJaccard;
+    private final int minSharedFailureBuckets;
+    private final List<Path> localDirs;
+    private final long localChunkBytes;
+
+    public LLMFlakyAnalyzer(LLMFlakySuggester suggester, LLMFlakyRunStore runStore,
+                            @Value("${llm.flaky.top-n:10}") int topN,
+                            @Value("${llm.flaky.recent-runs:20}") int recentRunsPerTest,
+                            @Value("${llm.flaky.parallelism:0}") int parallelism,
+                            @Value("${llm.flaky.batch-size:4096}") int batchSize,
+                            @Value("${llm.flaky.half-life-hours:168}") long halfLifeHours,
+                            @Value("${llm.flaky.min-flip-rate:0.05}") double minFlipRate,
+                            @Value("${llm.flaky.broken-recent-fail-rate:0.95}") double brokenRecentFailRate,
+                            @Value("${llm.flaky.drift-window-hours:168}") long driftWindowHours,
+                            @Value("${llm.flaky.drift-ratio:1.5}") double driftRatio,
+                            @Value("${llm.flaky.correlation.bucket-minutes:10}") long failureBucketMinutes,
+                            @Value("${llm.flaky.correlation.min-jaccard:0.6}") double minCoFailureJaccard,
+                            @Value("${llm.flaky.correlation.min-shared-buckets:3}") int minSharedFailureBuckets,
+                            @Value("${llm.flaky.local.allowed-dirs:}") String localDirs,
+                            @Value("${llm.flaky.local.chunk-mb:64}") long localChunkMb) {
+        this.suggester = suggester;
+        this.topN = topN;
+        this.runStore = runStore;
+        this.recentRunsPerTest = recentRunsPerTest;
+        this.parallelism = parallelism > 0 ? parallelism : ForkJoinPool.commonPool().getParallelism();
+        this.batchSize = batchSize;
+        this.halfLifeSeconds = halfLifeHours * 3600;
+        this.minFlipRate = minFlipRate;
+        this.brokenRecentFailRate = brokenRecentFailRate;
+        this.driftWindowSeconds = driftWindowHours * 3600;
+        this.driftRatio = driftRatio;
+        this.failureBucketSeconds = failureBucketMinutes * 60;
+        this.minCoFailureJaccard = minCoFailureJaccard;
+        this.minSharedFailureBuckets = minSharedFailureBuckets;
+        this.localDirs = realDirs(localDirs);
+        this.localChunkBytes = localChunkMb << 20;
+    }
+
+    private static List<Path> realDirs(String dirs) {
+        List<Path> real = new ArrayList<>();
+        if (dirs == null || dirs.isBlank()) {
+            return real;
+        }
+        for (String dir : dirs.split(",")) {
+            if (dir.isBlank()) {
+                continue;
+            }
+            try {
+                real.add(Paths.get(dir.trim()).toRealPath());
+            } catch (IOException | InvalidPathException e) {
+                LOGGER.warning("Ignoring allowed flaky history dir " + dir.trim() + ": " + e.getMessage());
+            }
+        }
+        return real;
+    }
+
+    /**
+     * Receives parsed run records one at a time.
+     */
+    interface RunSink {
+        void accept(String testName, String status, long duration, String errorMsg, LocalDateTime executedAt);
+    }
+
     public List<LLMFlakyTestRunEntry> parseCsv(InputStream in) throws IOException {
         List<LLMFlakyTestRunEntry> entries = new ArrayList<>();
+        readCsv(in, (testName, status, duration, errorMsg, executedAt) ->
+                entries.add(new LLMFlakyTestRunEntry(testName, status, duration, errorMsg, executedAt)));
+        return entries;
+    }
+
+    /**
+     * Folds an uploaded history into per-test aggregates while it is read, without keeping
+     * the rows themselves. {@code csv} and {@code junit-xml} are read as such; any other format
+     * is read as a JSON array or NDJSON.
+     * Parsing stays on the calling thread; folding runs on the common fork/join pool in
+     * batches when {@code llm.flaky.parallelism} is above one.
+     * <p>
+     * With the run store enabled, the upload's new runs are appended to the store instead and
+     * the result covers the whole retained history.
+     */
+    public LLMFlakyHistory ingest(InputStream in, String format) throws IOException {
+        if (runStore != null && runStore.isEnabled()) {
+            try (LLMFlakyRunStore.Appender appender = runStore.appender()) {
+                read(in, format, appender::add);
+                appender.commit();
+            }
+            return runStore.scan(this::newHistory);
+        }
+        if (parallelism <= 1) {
+            LLMFlakyHistory history = newHistory();
+            read(in, format, history::add);
+            return history;
+        }
+        LLMFlakyAggregator aggregator = new LLMFlakyAggregator(ForkJoinPool.commonPool(),
+                parallelism, batchSize, this::newHistory);
+        read(in, format, aggregator::add);
+        return aggregator.finish();
+    }
+
+    public boolean isLocalEnabled() {
+        return !localDirs.isEmpty();
+    }
+
+    /**
+     * {@code path} resolved to its real path if that is a regular file under one of
+     * {@code llm.flaky.local.allowed-dirs}, or null. Symbolic links are resolved first, so a
+     * link inside an allowed dir cannot point outside of it.
+     */
+    public Path allowedLocalFile(String path) {
+        if (localDirs.isEmpty() || path == null || path.isBlank()) {
+            return null;
+        }
+        try {
+            Path real = Paths.get(path).toRealPath();
+            if (Files.isRegularFile(real)) {
+                for (Path dir : localDirs) {
+                    if (real.startsWith(dir)) {
+                        return real;
+                    }
+                }
+            }
+        } catch (IOException | InvalidPathException e) {
+            return null;
+        }
+        return null;
+    }
+
+    /**
+     * Folds a CSV history already on this host into per-test aggregates, parsing it in parallel
+     * from a memory-mapped file in chunks of {@code llm.flaky.local.chunk-mb}. The file is only
+     * read, never copied into the run store.
+     */
+    public LLMFlakyHistory ingestLocalCsv(Path file) throws IOException {
+        return LLMMappedCsvReader.read(file, localChunkBytes, this::newHistory);
+    }
+
+    private static boolean isFlaky(LLMFlakyTestResult result) {
+        return LLMFlakinessScores.Classification.FLAKY.name().equals(result.getClassification());
+    }
+
+    LLMFlakyHistory newHistory() {
+        return new LLMFlakyHistory(recentRunsPerTest, halfLifeSeconds, driftWindowSeconds, failureBucketSeconds);
+    }
+
+    void read(InputStream in, String format, RunSink sink) throws IOException {
+        if (format.equalsIgnoreCase("csv")) {
+            readCsv(in, sink);
+        } else if (format.equalsIgnoreCase("junit-xml")) {
+            readJUnitXml(in, sink);
+        } else {
+            readJson(in, sink);
+        }
+    }
+
+    private void readCsv(InputStream in, RunSink sink) throws IOException {
         try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
              CSVParser csvParser = new CSVParser(reader, CSVFormat.DEFAULT
                      .withFirstRecordAsHeader()
@@ -33,151 +221,352 @@ public class LLMFlakyAnalyzer {
                      .withTrim())) {
 
             for (CSVRecord csvRecord : csvParser) {
-                LLMFlakyTestRunEntry entry = new LLMFlakyTestRunEntry();
-                entry.setTestName(csvRecord.get("testName"));
-                entry.setStatus(csvRecord.get("status"));
-                entry.setDuration(Long.parseLong(csvRecord.get("duration")));
-                entry.setErrorMsg(csvRecord.get("errorMessage"));
-                DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-                entry.setExecutedAt(LocalDateTime.parse(csvRecord.get("timestamp"), formatter));
-                entries.add(entry);
+                sink.accept(csvRecord.get("testName"),
+                        csvRecord.get("status"),
+                        Long.parseLong(csvRecord.get("duration")),
+                        csvRecord.get("errorMessage"),
+                        LocalDateTime.parse(csvRecord.get("timestamp"), TIMESTAMP_FORMAT));
             }
         }
-        return entries;
     }
 
     public List<LLMFlakyTestRunEntry> parseJson(InputStream in) throws IOException {
-        ObjectMapper mapper = new ObjectMapper();
-        return Arrays.asList(mapper.readValue(in, LLMFlakyTestRunEntry[].class));
+        List<LLMFlakyTestRunEntry> entries = new ArrayList<>();
+        readJson(in, (testName, status, duration, errorMsg, executedAt) ->
+                entries.add(new LLMFlakyTestRunEntry(testName, status, duration, errorMsg, executedAt)));
+        return entries;
     }
 
-    private String buildPrompt(List<LLMFlakyTestRunEntry> runs) {
-        if (runs == null || runs.isEmpty()) return "";
-
-        String testName = runs.get(0).getTestName();
-        long failCount = runs.stream().filter(r -> "FAILED".equalsIgnoreCase(r.getStatus())).count();
-        double failRate = (double) failCount / runs.size();
-
-        StringBuilder sb = new StringBuilder();
-        sb.append("Test Name: ").append(testName).append("\n");
-        sb.append("Fail Rate: ").append(String.format("%.2f", failRate * 100)).append("%\n");
-        sb.append("Recent Runs:\n");
-
-        for (LLMFlakyTestRunEntry run : runs) {
-            sb.append("- [")
-                    .append(run.getExecutedAt()).append("] ")
-                    .append(run.getStatus()).append(" | ")
-                    .append(run.getDuration()).append("ms | ")
-                    .append(run.getErrorMsg()).append("\n");
+    /**
+     * Streams runs from either a top-level JSON array or newline-delimited JSON (one object
+     * per line), one object at a time. Field names follow {@link LLMFlakyTestRunEntry}; the CSV
+     * column names {@code errorMessage} and {@code timestamp} are accepted as well.
+     */
+    private void readJson(InputStream in, RunSink sink) throws IOException {
+        try (JsonParser parser = LLMJson.FACTORY.createParser(in)) {
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.START_ARRAY) {
+                token = parser.nextToken();
+            }
+            // Without an enclosing array, Jackson reads consecutive root-level objects as NDJSON.
+            while (token != null && token != JsonToken.END_ARRAY) {
+                if (token != JsonToken.START_OBJECT) {
+                    throw new JsonParseException(parser, "Expected a test run object but found " + token);
+                }
+                readRun(parser, sink);
+                token = parser.nextToken();
+            }
         }
-
-        sb.append("\nSuggestion:\n");
-        return sb.toString();
     }
 
-    private String callLLM(String prompt, String apiUrl, String apiKey, String model) throws Exception {
-        ObjectMapper mapper = new ObjectMapper();
+    private void readRun(JsonParser parser, RunSink sink) throws IOException {
+        String testName = null;
+        String status = null;
+        long duration = 0;
+        String errorMsg = null;
+        LocalDateTime executedAt = null;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            switch (field) {
+                case "testName" -> testName = scalarText(parser);
+                case "status" -> status = scalarText(parser);
+                case "duration" -> duration = parser.getValueAsLong();
+                case "errorMsg", "errorMessage" -> errorMsg = scalarText(parser);
+                case "executedAt", "timestamp" -> executedAt = parseTimestamp(scalarText(parser));
+                default -> parser.skipChildren();
+            }
+        }
+        if (testName == null) {
+            throw new JsonParseException(parser, "Test run without a testName");
+        }
+        sink.accept(testName, status, duration, errorMsg, executedAt);
+    }
 
-        Map<String, Object> payload = new HashMap<>();
-        payload.put("model", model);
-        payload.put("temperature", 0.3);
-        payload.put("max_tokens", 1500);
+    private static String scalarText(JsonParser parser) throws IOException {
+        if (parser.currentToken().isStructStart()) {
+            parser.skipChildren();
+            return null;
+        }
+        return parser.getValueAsString();
+    }
 
-        List<Map<String, String>> messages = new ArrayList<>();
-        messages.add(Map.of("role", "system", "content", "You are a test flakiness analyzer."));
-        messages.add(Map.of("role", "user", "content", prompt));
-        payload.put("messages", messages);
+    private static XMLInputFactory newXmlInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        // Test reports never need a DTD; refusing them also rules out external entity attacks.
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
 
-        String json = mapper.writeValueAsString(payload);
+    /**
+     * Reads JUnit-style XML reports as written by surefire, failsafe, Gradle or TestNG's
+     * junitreports: either one report or a zip of them, told apart by the zip signature. Each
+     * report is read with StAX in a single pass. A {@code testcase} becomes one run named
+     * {@code classname.name}, timed by its {@code time} (seconds) and dated by its own or its
+     * suite's {@code timestamp}. Surefire's rerun elements ({@code flakyFailure},
+     * {@code rerunFailure} and their error variants) each add a failed run of the same test.
+     */
+    private void readJUnitXml(InputStream in, RunSink sink) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in);
+        buffered.mark(ZIP_MAGIC.length);
+        byte[] head = buffered.readNBytes(ZIP_MAGIC.length);
+        buffered.reset();
+        if (!Arrays.equals(head, ZIP_MAGIC)) {
+            readJUnitReport(buffered, sink);
+            return;
+        }
+        try (ZipInputStream zip = new ZipInputStream(buffered)) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                if (!entry.isDirectory() && entry.getName().toLowerCase(Locale.ROOT).endsWith(".xml")) {
+                    // The JDK's StAX reader closes its input at the end of a document.
+                    readJUnitReport(new FilterInputStream(zip) {
+                        @Override
+                        public void close() {
+                        }
+                    }, sink);
+                }
+            }
+        }
+    }
 
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(apiUrl))
-                .header("Authorization", "Bearer " + apiKey)
-                .header("Content-Type", "application/json")
-                .POST(HttpRequest.BodyPublishers.ofString(json))
-                .build();
+    private void readJUnitReport(InputStream in, RunSink sink) throws IOException {
+        try {
+            XMLStreamReader xml = XML_INPUT.createXMLStreamReader(in);
+            try {
+                Deque<String> suiteTimestamps = new ArrayDeque<>();
+                while (xml.hasNext()) {
+                    int event = xml.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        switch (xml.getLocalName()) {
+                            case "testsuite" -> {
+                                String timestamp = xml.getAttributeValue(null, "timestamp");
+                                suiteTimestamps.push(timestamp != null ? timestamp : suiteTimestamps.isEmpty() ? "" : suiteTimestamps.peek());
+                            }
+                            case "testcase" -> readTestCase(xml, suiteTimestamps.peek(), sink);
+                            default -> {
+                            }
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT && xml.getLocalName().equals("testsuite")) {
+                        suiteTimestamps.poll();
+                    }
+                }
+            } finally {
+                xml.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Malformed JUnit XML report: " + e.getMessage(), e);
+        }
+    }
 
-        HttpClient client = HttpClient.newHttpClient();
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+    private static void readTestCase(XMLStreamReader xml, String suiteTimestamp, RunSink sink) throws XMLStreamException {
+        String className = xml.getAttributeValue(null, "classname");
+        String name = xml.getAttributeValue(null, "name");
+        if (name == null) {
+            throw new XMLStreamException("testcase without a name", xml.getLocation());
+        }
+        String testName = className == null || className.isEmpty() ? name : className + "." + name;
+        long duration = parseSeconds(xml.getAttributeValue(null, "time"));
+        String timestamp = xml.getAttributeValue(null, "timestamp");
+        LocalDateTime executedAt = parseReportTimestamp(timestamp != null ? timestamp : suiteTimestamp);
+
+        String status = "PASSED";
+        String errorMsg = null;
+        int depth = 1;
+        while (depth > 0) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            } else if (event == XMLStreamConstants.START_ELEMENT && depth++ == 1) {
+                switch (xml.getLocalName()) {
+                    case "failure", "error" -> {
+                        status = "FAILED";
+                        errorMsg = failureMessage(xml);
+                        depth--;
+                    }
+                    case "flakyFailure", "flakyError", "rerunFailure", "rerunError" -> {
+                        sink.accept(testName, "FAILED", duration, failureMessage(xml), executedAt);
+                        depth--;
+                    }
+                    case "skipped" -> {
+                        if (errorMsg == null) {
+                            status = "SKIPPED";
+                        }
+                    }
+                    default -> {
+                    }
+                }
+            }
+        }
+        sink.accept(testName, status, duration, errorMsg, executedAt);
+    }
 
-        JsonNode jsonNode = mapper.readTree(response.body());
-        return jsonNode.get("choices").get(0).get("message").get("content").asText();
+    /**
+     * The message of a failure element, consuming the element. Without a {@code message}
+     * attribute, the first line of its text is used, which is normally the exception line of the
+     * stack trace.
+     */
+    private static String failureMessage(XMLStreamReader xml) throws XMLStreamException {
+        String message = xml.getAttributeValue(null, "message");
+        StringBuilder text = message == null ? new StringBuilder() : null;
+        int depth = 1;
+        while (depth > 0) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            } else if (text != null && text.length() < MAX_FAILURE_TEXT
+                    && (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA)) {
+                text.append(xml.getText());
+            }
+        }
+        if (text == null) {
+            return message;
+        }
+        String trimmed = text.toString().strip();
+        int newline = trimmed.indexOf('\n');
+        String firstLine = newline < 0 ? trimmed : trimmed.substring(0, newline).strip();
+        return firstLine.isEmpty() ? null : firstLine;
     }
 
-    private Map<String, String> parseSuggestions(String rawResponse) {
-        Map<String, String> suggestions = new HashMap<>();
-        String[] lines = rawResponse.split("\n");
-        String currentTest = null;
+    private static long parseSeconds(String text) {
+        if (text == null || text.isBlank()) {
+            return 0;
+        }
+        // Some surefire versions format times with grouping separators, e.g. 1,234.5.
+        return Math.round(Double.parseDouble(text.replace(",", "")) * 1000);
+    }
 
-        for (String line : lines) {
-            if (line.startsWith("Test Name: ")) {
-                currentTest = line.replace("Test Name: ", "").trim();
-                suggestions.put(currentTest, "");
-            } else if (currentTest != null) {
-                suggestions.put(currentTest, suggestions.get(currentTest) + line + "\n");
-            }
+    /**
+     * Report timestamps are ISO dates with or without a zone; zoned ones are converted to UTC.
+     */
+    private static LocalDateTime parseReportTimestamp(String text) {
+        if (text == null || text.isEmpty() || text.indexOf('T') < 0) {
+            return parseTimestamp(text);
         }
+        TemporalAccessor parsed = DateTimeFormatter.ISO_DATE_TIME.parseBest(text, ZonedDateTime::from, LocalDateTime::from);
+        return parsed instanceof ZonedDateTime zoned
+                ? zoned.withZoneSameInstant(ZoneOffset.UTC).toLocalDateTime()
+                : (LocalDateTime) parsed;
+    }
 
-        return suggestions;
+    private static LocalDateTime parseTimestamp(String text) {
+        if (text == null || text.isEmpty()) {
+            return null;
+        }
+        return LocalDateTime.parse(text, text.indexOf('T') > 0 ? DateTimeFormatter.ISO_LOCAL_DATE_TIME : TIMESTAMP_FORMAT);
     }
 
     public LLMFlakyTestResponse analyze(InputStream input, String format, int threshold,
                                         String llmApiUrl, String llmApiKey, String llmModel) throws Exception {
-        List<LLMFlakyTestRunEntry> allEntries = format.equalsIgnoreCase("csv") ?
-                parseCsv(input) :
-                parseJson(input);
+        return LLMGateway.await(analyzeAsync(input, format, threshold, llmApiUrl, llmApiKey, llmModel));
+    }
+
+    public CompletableFuture<LLMFlakyTestResponse> analyzeAsync(InputStream input, String format, int threshold,
+                                                                String llmApiUrl, String llmApiKey, String llmModel) throws IOException {
+        return analyzeAsync(input, format, threshold, 0, llmApiUrl, llmApiKey, llmModel);
+    }
 
-        Map<String, List<LLMFlakyTestRunEntry>> grouped = allEntries.stream()
-                .collect(Collectors.groupingBy(LLMFlakyTestRunEntry::getTestName));
+    /**
+     * Non-blocking variant of {@link #analyze}. The upload is parsed and scored on the calling
+     * thread; only the LLM suggestion step is asynchronous. The {@code topN} most flaky tests
+     * ({@code llm.flaky.top-n} when not positive) get suggestions; each test's prompt carries
+     * its totals and its most recent runs ({@code llm.flaky.recent-runs}), not its full history.
+     */
+    public CompletableFuture<LLMFlakyTestResponse> analyzeAsync(InputStream input, String format, int threshold, int topN,
+                                                                String llmApiUrl, String llmApiKey, String llmModel) throws IOException {
+        LLMFlakyHistory history = ingest(input, format);
+        return suggestAsync(report(history, threshold, topN), llmApiUrl, llmApiKey, llmModel);
+    }
 
+    /**
+     * Scores the tests of {@code history} that failed at least {@code threshold} percent of the
+     * time and returns the {@code topN} most flaky, with their recent runs. Within each
+     * classification, tests whose p95 duration grew by {@code llm.flaky.drift-ratio} or more
+     * between the last two {@code llm.flaky.drift-window-hours} windows rank first. Reported
+     * tests that fail in the same {@code llm.flaky.correlation.bucket-minutes} buckets are
+     * grouped (see {@link LLMCoFailures}). The results do not refer back to {@code history},
+     * which is only read while this runs.
+     */
+    public List<LLMFlakyTestResult> report(LLMFlakyHistory history, int threshold, int topN) {
+        LLMFlakinessScores scores = history.getScores();
         List<LLMFlakyTestResult> flakyTests = new ArrayList<>();
 
-        for (Map.Entry<String, List<LLMFlakyTestRunEntry>> entry : grouped.entrySet()) {
-            String testName = entry.getKey();
-            List<LLMFlakyTestRunEntry> runs = entry.getValue();
-
-            long failCount = runs.stream().filter(r -> "FAILED".equalsIgnoreCase(r.getStatus())).count();
-            double failRate = (double) failCount / runs.size();
+        for (int id = 0; id < history.size(); id++) {
+            LLMFlakyTestStats stats = history.getStats(id);
+            double failRate = stats.getFailRate();
 
             if (failRate >= threshold / 100.0) {
                 LLMFlakyTestResult result = new LLMFlakyTestResult();
-                result.setTestName(testName);
+                result.setTestName(stats.getTestName());
                 result.setFailRate(failRate);
-                result.setFailCount((int) failCount);
-                result.setTotalRuns(runs.size());
-                result.setRuns(runs);
-
-                Optional<LLMFlakyTestRunEntry> latestFail = runs.stream()
-                        .filter(r -> "FAILED".equalsIgnoreCase(r.getStatus()))
-                        .max(Comparator.comparing(LLMFlakyTestRunEntry::getExecutedAt));
-
-                result.setErrorMessage(latestFail.map(LLMFlakyTestRunEntry::getErrorMsg).orElse("N/A"));
+                result.setFailCount((int) stats.getFailCount());
+                result.setTotalRuns((int) stats.getTotalRuns());
+                result.setLastFailureAt(stats.getLastFailureAt());
+                result.setAvgDuration(stats.getMeanDuration());
+                result.setDurationStdDev(stats.getDurationStdDev());
+                result.setMinDuration(stats.getMinDuration());
+                result.setMaxDuration(stats.getMaxDuration());
+                result.setP50Duration(stats.getDurationQuantile(0.50));
+                result.setP95Duration(stats.getDurationQuantile(0.95));
+                result.setP99Duration(stats.getDurationQuantile(0.99));
+                result.setDurationDriftRatio(stats.getDurationDriftRatio());
+                result.setDurationDrifting(stats.getDurationDriftRatio() >= driftRatio);
+                result.setErrorSignatures(LLMErrorSignatures.cluster(stats.getErrorSignatures()));
+                result.setFlipRate(scores.flipRate(id));
+                result.setFailProbabilityLow(scores.failProbabilityLow(id));
+                result.setFailProbabilityHigh(scores.failProbabilityHigh(id));
+                result.setRecencyWeightedFailRate(scores.recencyWeightedFailRate(id));
+                result.setClassification(scores.classify(id, minFlipRate, brokenRecentFailRate).name());
+
+                String lastError = stats.getFailCount() > 0 ? stats.getLastFailureMessage() : null;
+                result.setErrorMessage(lastError != null ? lastError : "N/A");
                 flakyTests.add(result);
             }
         }
 
-        flakyTests.sort((a, b) -> Double.compare(b.getFailRate(), a.getFailRate()));
-        List<LLMFlakyTestResult> topFlaky = flakyTests.stream().limit(10).collect(Collectors.toList());
-
-        // Build prompt
-        StringBuilder combinedPrompt = new StringBuilder();
-        combinedPrompt.append("Instructions:\n")
-                .append("- You are a QA flakiness assistant.\n")
-                .append("- For each test, suggest retry logic, waits, or root causes.\n\n");
-
+        // Genuinely flaky tests first, then those whose durations are drifting (often the cause of
+        // timeouts), most often failing lately first.
+        flakyTests.sort(Comparator.comparing((LLMFlakyTestResult result) -> !isFlaky(result))
+                .thenComparing(result -> !result.isDurationDrifting())
+                .thenComparing(Comparator.comparingDouble(LLMFlakyTestResult::getRecencyWeightedFailRate).reversed())
+                .thenComparing(Comparator.comparingDouble(LLMFlakyTestResult::getFailRate).reversed())
+                .thenComparing(LLMFlakyTestResult::getTestName));
+        List<LLMFlakyTestResult> topFlaky = flakyTests.stream().limit(topN > 0 ? topN : this.topN).collect(Collectors.toList());
+        // Run entries are materialized only for the reported tests.
         for (LLMFlakyTestResult result : topFlaky) {
-            String prompt = buildPrompt(result.getRuns());
-            combinedPrompt.append(prompt).append("\n");
+            result.setRuns(history.getStats(result.getTestName()).getRecentRuns());
+        }
+        if (failureBucketSeconds > 0) {
+            LLMCoFailures.group(topFlaky, history, minCoFailureJaccard, minSharedFailureBuckets);
         }
+        return topFlaky;
+    }
 
-        String finalPrompt = combinedPrompt.toString();
-        String suggestionResponse = callLLM(finalPrompt, llmApiUrl, llmApiKey, llmModel);
-        Map<String, String> suggestions = parseSuggestions(suggestionResponse);
+    /**
+     * Asks the LLM about the flaky tests among {@code topFlaky}, returned by {@link #report}.
+     */
+    public CompletableFuture<LLMFlakyTestResponse> suggestAsync(List<LLMFlakyTestResult> topFlaky,
+                                                                String llmApiUrl, String llmApiKey, String llmModel) {
 
+        // Broken or already fixed tests get no LLM suggestion; there is nothing flaky to explain.
+        List<LLMFlakyTestResult> toSuggest = new ArrayList<>();
         for (LLMFlakyTestResult result : topFlaky) {
-            result.setSuggestion(suggestions.getOrDefault(result.getTestName(), "No suggestion."));
+            if (isFlaky(result)) {
+                toSuggest.add(result);
+            } else {
+                result.setSuggestion("Not sent for suggestions: classified as " + result.getClassification() + ".");
+            }
         }
 
-        return new LLMFlakyTestResponse(topFlaky, suggestions);
+        return suggester.suggest(toSuggest, llmApiUrl, llmApiKey, llmModel)
+                .thenApply(suggestions -> {
+                    LLMFlakyTestResponse response = new LLMFlakyTestResponse(topFlaky, suggestions.fresh());
+                    response.setCachedSuggestions(suggestions.cached());
+                    return response;
+                });
     }
 }
@@ -0,0 +1,119 @@
+package testleaf.llm;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-test aggregates of an uploaded run history, filled one record at a time while the
+ * upload is parsed. Memory grows with the number of distinct tests, not with the rows.
+ * Tests get dense ids in order of first appearance; {@link LLMFlakinessScores} is indexed by them.
+ */
+public final class LLMFlakyHistory {
+
+    private final int recentRunsPerTest;
+    private final long driftWindowSeconds;
+    private final long failureBucketSeconds;
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<LLMFlakyTestStats> tests = new ArrayList<>();
+    private final LLMFlakinessScores scores;
+    private long rows;
+
+    public LLMFlakyHistory(int recentRunsPerTest, long halfLifeSeconds, long driftWindowSeconds, long failureBucketSeconds) {
+        this.recentRunsPerTest = recentRunsPerTest;
+        this.driftWindowSeconds = driftWindowSeconds;
+        this.failureBucketSeconds = failureBucketSeconds;
+        this.scores = new LLMFlakinessScores(halfLifeSeconds);
+    }
+
+    public void add(String testName, String status, long duration, String errorMsg, LocalDateTime executedAt) {
+        rows++;
+        int id = idOf(testName);
+        tests.get(id).add(status, duration, errorMsg, executedAt);
+        scores.add(id, "FAILED".equalsIgnoreCase(status), executedAt);
+    }
+
+    public void add(LLMFlakyTestRunEntry entry) {
+        add(entry.getTestName(), entry.getStatus(), entry.getDuration(), entry.getErrorMsg(), entry.getExecutedAt());
+    }
+
+    private int idOf(String testName) {
+        Integer id = ids.get(testName);
+        if (id == null) {
+            id = tests.size();
+            ids.put(testName, id);
+            tests.add(new LLMFlakyTestStats(testName, recentRunsPerTest, driftWindowSeconds, failureBucketSeconds));
+            scores.ensure(id);
+        }
+        return id;
+    }
+
+    /**
+     * Folds another partial history into this one; {@code other} must not be used afterwards.
+     */
+    public void merge(LLMFlakyHistory other) {
+        merge(other, true);
+    }
+
+    /**
+     * Like {@link #merge}, but leaves {@code other} as it was, at the cost of copying the stats
+     * of tests that are new here.
+     */
+    public void mergeCopy(LLMFlakyHistory other) {
+        merge(other, false);
+    }
+
+    private void merge(LLMFlakyHistory other, boolean adopt) {
+        rows += other.rows;
+        for (int otherId = 0; otherId < other.tests.size(); otherId++) {
+            LLMFlakyTestStats theirs = other.tests.get(otherId);
+            Integer id = ids.get(theirs.getTestName());
+            if (id == null && adopt) {
+                id = tests.size();
+                ids.put(theirs.getTestName(), id);
+                tests.add(theirs);
+            } else {
+                if (id == null) {
+                    id = idOf(theirs.getTestName());
+                }
+                tests.get(id).merge(theirs);
+            }
+            scores.merge(id, other.scores, otherId);
+        }
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * Number of distinct tests; ids run from 0 to {@code size() - 1}.
+     */
+    public int size() {
+        return tests.size();
+    }
+
+    public LLMFlakyTestStats getStats(int id) {
+        return tests.get(id);
+    }
+
+    /**
+     * The stats of {@code testName}, or null if it has no runs here.
+     */
+    public LLMFlakyTestStats getStats(String testName) {
+        Integer id = ids.get(testName);
+        return id == null ? null : tests.get(id);
+    }
+
+    public LLMFlakinessScores getScores() {
+        return scores;
+    }
+
+    public Collection<LLMFlakyTestStats> getTests() {
+        return Collections.unmodifiableList(tests);
+    }
+}
@@ -0,0 +1,155 @@
+package testleaf.llm;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Keeps recent flaky analyses so their run details can be paged through after the summary has
+ * been returned, and writes responses straight to an output stream with a {@link JsonGenerator},
+ * one test at a time, instead of building the whole document in memory. Analyses are held in an
+ * LRU bounded by count and age.
+ * <p>
+ * Runs of an analysis made from the run store are paged from the store, over every retained
+ * run of the test as stored at the time of the request. Other analyses keep only each test's
+ * last {@code llm.flaky.recent-runs} runs, so only those can be paged.
+ * <p>
+ * Serialization goes through the application's {@link ObjectMapper}, so dates and other
+ * settings match the rest of the API.
+ */
+@Component
+public class LLMFlakyReports {
+
+    public static final int MAX_PAGE_SIZE = 500;
+
+    private final ObjectMapper mapper;
+    private final LLMFlakyRunStore runStore;
+    private final ObjectWriter fullWriter;
+    private final ObjectWriter summaryWriter;
+    private final LinkedHashMap<String, Report> reports = new LinkedHashMap<>(16, 0.75f, true);
+    private final int maxEntries;
+    private final long ttlMillis;
+
+    public LLMFlakyReports(ObjectMapper mapper, LLMFlakyRunStore runStore,
+                           @Value("${llm.flaky.reports.max-entries:20}") int maxEntries,
+                           @Value("${llm.flaky.reports.ttl-seconds:3600}") long ttlSeconds) {
+        this.mapper = mapper;
+        this.runStore = runStore;
+        this.fullWriter = mapper.writerFor(LLMFlakyTestResult.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        this.summaryWriter = mapper.copy()
+                .addMixIn(LLMFlakyTestResult.class, SummaryMixin.class)
+                .writerFor(LLMFlakyTestResult.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlSeconds * 1000;
+    }
+
+    @JsonIgnoreProperties({"runs"})
+    private abstract static class SummaryMixin {
+    }
+
+    private record Report(LLMFlakyTestResponse response, long createdAt, boolean stored) {
+    }
+
+    /**
+     * Keeps {@code response} for later run lookups and assigns its analysis id. {@code stored}
+     * tells that it was made from the run store, whose runs are then paged instead.
+     */
+    public synchronized String put(LLMFlakyTestResponse response, boolean stored) {
+        String id = UUID.randomUUID().toString();
+        response.setAnalysisId(id);
+        evictExpired(System.currentTimeMillis());
+        reports.put(id, new Report(response, System.currentTimeMillis(), stored));
+        Iterator<String> eldest = reports.keySet().iterator();
+        while (reports.size() > Math.max(1, maxEntries)) {
+            eldest.next();
+            eldest.remove();
+        }
+        return id;
+    }
+
+    /**
+     * One page of the runs of {@code testName} in analysis {@code analysisId}, oldest first, or
+     * null if the analysis has expired or did not report that test.
+     */
+    public LLMFlakyRunPage runs(String analysisId, String testName, int page, int size) {
+        LLMFlakyTestResult result;
+        boolean stored;
+        synchronized (this) {
+            evictExpired(System.currentTimeMillis());
+            Report report = reports.get(analysisId);
+            if (report == null) {
+                return null;
+            }
+            result = report.response().getFlakyTests().stream()
+                    .filter(test -> test.getTestName().equals(testName))
+                    .findFirst()
+                    .orElse(null);
+            stored = report.stored();
+        }
+        if (result == null) {
+            return null;
+        }
+        int pageSize = Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+        int pageNumber = Math.max(0, page);
+        if (stored && runStore.isEnabled()) {
+            return runStore.runs(testName, pageNumber, pageSize);
+        }
+        List<LLMFlakyTestRunEntry> runs = result.getRuns() == null ? List.of() : result.getRuns();
+        int from = (int) Math.min(runs.size(), (long) pageNumber * pageSize);
+        int to = Math.min(runs.size(), from + pageSize);
+        return new LLMFlakyRunPage(testName, pageNumber, pageSize, runs.size(), List.copyOf(runs.subList(from, to)));
+    }
+
+    private void evictExpired(long now) {
+        if (ttlMillis > 0) {
+            reports.values().removeIf(report -> now - report.createdAt() > ttlMillis);
+        }
+    }
+
+    /**
+     * Writes {@code response} as JSON. The summary view leaves out each test's runs and the
+     * suggestion maps, which repeat the suggestion already carried by each test.
+     */
+    public void write(LLMFlakyTestResponse response, OutputStream out, boolean summary) throws IOException {
+        ObjectWriter writer = summary ? summaryWriter : fullWriter;
+        try (JsonGenerator generator = mapper.getFactory().createGenerator(out)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.writeStartObject();
+            generator.writeStringField("analysisId", response.getAnalysisId());
+            generator.writeArrayFieldStart("flakyTests");
+            for (LLMFlakyTestResult result : response.getFlakyTests()) {
+                writer.writeValue(generator, result);
+            }
+            generator.writeEndArray();
+            if (!summary) {
+                writeSuggestions(generator, "llmSuggestions", response.getLlmSuggestions());
+                writeSuggestions(generator, "cachedSuggestions", response.getCachedSuggestions());
+            }
+            generator.writeEndObject();
+        }
+    }
+
+    private static void writeSuggestions(JsonGenerator generator, String field, Map<String, String> suggestions) throws IOException {
+        generator.writeObjectFieldStart(field);
+        if (suggestions != null) {
+            for (Map.Entry<String, String> suggestion : suggestions.entrySet()) {
+                generator.writeStringField(suggestion.getKey(), suggestion.getValue());
+            }
+        }
+        generator.writeEndObject();
+    }
+}
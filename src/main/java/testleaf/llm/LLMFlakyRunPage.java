@@ -0,0 +1,11 @@
+package testleaf.llm;
+
+import java.util.List;
+
+/**
+ * One page of a reported test's runs, oldest first. {@code totalRuns} counts the runs that can be
+ * paged: every retained run of the test when the analysis came from the run store, otherwise
+ * only the last {@code llm.flaky.recent-runs} kept with the analysis.
+ */
+public record LLMFlakyRunPage(String testName, int page, int size, int totalRuns, List<LLMFlakyTestRunEntry> runs) {
+}
@@ -0,0 +1,741 @@
+package testleaf.llm;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Local, append-only store of flaky-test runs under {@code llm.flaky.store.dir}. Runs are
+ * written as immutable columnar segment files: a per-segment string dictionary followed by
+ * one column each for execution time, duration, and the dictionary ids of test name, status
+ * and error. Scans memory-map the segments and read the columns in place, so no run objects
+ * are materialized.
+ * <p>
+ * An upload appends only its delta. A run's identity is its test, execution time, status,
+ * duration and error; each segment keeps the sorted 64-bit fingerprints of its runs' identities,
+ * 8 bytes per run on the heap. An upload skips as many copies of a run as are already stored, so
+ * re-uploading a file (with or without timestamps) adds nothing, while new runs at any time,
+ * such as a late shard, are appended. A later upload repeating a run identical in every field is
+ * taken to be the stored one. Runs older than {@code retention-days} are ignored by scans and
+ * dropped by compaction, which also rewrites partly filled segments into full ones once more
+ * than {@code compact-after-segments} of them have accumulated.
+ * <p>
+ * Segment layout (big-endian): magic, row count, min and max execution time, dictionary size,
+ * dictionary entries (length-prefixed UTF-8), then the columns {@code long executedAt[]},
+ * {@code long duration[]}, {@code int test[]}, {@code int status[]}, {@code int error[]}.
+ * Times are epoch seconds of the local date-time; missing times and strings are stored as
+ * {@link #NO_TIME} and {@code -1}.
+ */
+@Component
+public class LLMFlakyRunStore {
+
+    private static final Logger LOGGER = Logger.getLogger(LLMFlakyRunStore.class.getName());
+    private static final int MAGIC = 0x464C4B31; // "FLK1"
+    private static final long NO_TIME = Long.MIN_VALUE;
+    private static final String SEGMENT_SUFFIX = ".flk";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final Path dir;
+    private final int segmentRows;
+    private final int compactAfterSegments;
+    private final int retentionDays;
+
+    private final Set<String> testNames = ConcurrentHashMap.newKeySet();
+    private final ReentrantLock appendLock = new ReentrantLock();
+    // Scans hold the read lock so compaction never deletes a segment that is being read.
+    private final ReadWriteLock segmentsLock = new ReentrantReadWriteLock();
+    private volatile List<Segment> segments = List.of();
+    private long nextSequence;
+
+    public LLMFlakyRunStore(@Value("${llm.flaky.store.dir:}") String dir,
+                            @Value("${llm.flaky.store.segment-rows:1000000}") int segmentRows,
+                            @Value("${llm.flaky.store.compact-after-segments:16}") int compactAfterSegments,
+                            @Value("${llm.flaky.store.retention-days:0}") int retentionDays) {
+        this.dir = dir == null || dir.isBlank() ? null : Paths.get(dir);
+        this.segmentRows = Math.max(1, segmentRows);
+        this.compactAfterSegments = compactAfterSegments;
+        this.retentionDays = retentionDays;
+        if (this.dir != null) {
+            open();
+        }
+    }
+
+    public boolean isEnabled() {
+        return dir != null;
+    }
+
+    private void open() {
+        try {
+            Files.createDirectories(dir);
+            List<Segment> found = new ArrayList<>();
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path file : (Iterable<Path>) files.sorted()::iterator) {
+                    String name = file.getFileName().toString();
+                    if (name.endsWith(TEMP_SUFFIX)) {
+                        // Left behind by an upload that never committed.
+                        Files.deleteIfExists(file);
+                    } else if (name.endsWith(SEGMENT_SUFFIX)) {
+                        Segment segment = Segment.open(file);
+                        found.add(segment);
+                        nextSequence = Math.max(nextSequence, segment.sequence + 1);
+                        testNames.addAll(segment.testIds.keySet());
+                    }
+                }
+            }
+            segments = List.copyOf(found);
+            LOGGER.info("Flaky run store at " + dir + ": " + found.size() + " segments, "
+                    + rowCount(found) + " runs, " + testNames.size() + " tests");
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to open flaky run store at " + dir, e);
+        }
+    }
+
+    /**
+     * Starts an upload. Only one appender is open at a time; it must be closed, and its rows
+     * become visible only on {@link Appender#commit()}.
+     */
+    public Appender appender() {
+        requireEnabled();
+        appendLock.lock();
+        return new Appender();
+    }
+
+    /**
+     * Folds every retained run into a history, one segment per fork/join task.
+     */
+    public LLMFlakyHistory scan(Supplier<LLMFlakyHistory> histories) {
+        requireEnabled();
+        long cutoff = retentionCutoff();
+        segmentsLock.readLock().lock();
+        try {
+            return segments.parallelStream()
+                    .filter(segment -> segment.maxTime == NO_TIME || segment.maxTime >= cutoff)
+                    .map(segment -> {
+                        LLMFlakyHistory partial = histories.get();
+                        segment.scan(cutoff, partial);
+                        return partial;
+                    })
+                    .reduce((left, right) -> {
+                        left.merge(right);
+                        return left;
+                    })
+                    .orElseGet(histories);
+        } finally {
+            segmentsLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * One page of the retained runs of {@code testName}, oldest first, and how many there are.
+     * Only segments holding the test are read, through the test's dictionary id kept since they
+     * were opened; the times of its runs are collected to order them, and runs are read for the
+     * requested page alone, decoding just the dictionary entries they use.
+     */
+    public LLMFlakyRunPage runs(String testName, int page, int size) {
+        requireEnabled();
+        long cutoff = retentionCutoff();
+        segmentsLock.readLock().lock();
+        try {
+            List<Segment> current = segments;
+            Columns[] columns = new Columns[current.size()];
+            RunRefs refs = new RunRefs();
+            for (int i = 0; i < current.size(); i++) {
+                Integer testId = current.get(i).testIds.get(testName);
+                if (testId != null) {
+                    columns[i] = new Columns(current.get(i));
+                    columns[i].rowsOf(testId, cutoff, i, refs);
+                }
+            }
+            Integer[] order = refs.oldestFirst();
+            int from = (int) Math.min(order.length, (long) page * size);
+            int to = Math.min(order.length, from + size);
+            List<LLMFlakyTestRunEntry> runs = new ArrayList<>(to - from);
+            for (int i = from; i < to; i++) {
+                int ref = order[i];
+                runs.add(columns[refs.segments[ref]].run(refs.rows[ref]));
+            }
+            return new LLMFlakyRunPage(testName, page, size, order.length, runs);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read runs of " + testName + " from flaky run store", e);
+        } finally {
+            segmentsLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Rewrites partly filled segments and segments holding runs past retention into as few
+     * full segments as possible. Full segments within retention are left alone, and segments
+     * entirely past retention are deleted without being read.
+     */
+    public void compact() {
+        requireEnabled();
+        appendLock.lock();
+        try {
+            compact(new SegmentWriter());
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private void compact(SegmentWriter writer) {
+        try {
+            long cutoff = retentionCutoff();
+            List<Segment> rewritten = segments.stream()
+                    .filter(segment -> segment.rows < segmentRows || (segment.minTime != NO_TIME && segment.minTime < cutoff))
+                    .toList();
+            boolean expired = rewritten.stream().anyMatch(segment -> segment.minTime != NO_TIME && segment.minTime < cutoff);
+            if (rewritten.size() < 2 && !expired) {
+                return;
+            }
+            for (Segment segment : rewritten) {
+                if (segment.maxTime != NO_TIME && segment.maxTime < cutoff) {
+                    continue;
+                }
+                segment.scan(cutoff, writer::add);
+            }
+            List<Segment> compacted = install(writer.finish(), rewritten);
+            LOGGER.info("Compacted " + rewritten.size() + " flaky run segments into " + compacted.size());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to compact flaky run store", e);
+        } finally {
+            writer.discard();
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", isEnabled());
+        if (isEnabled()) {
+            List<Segment> current = segments;
+            stats.put("dir", dir.toString());
+            stats.put("segments", current.size());
+            stats.put("runs", rowCount(current));
+            stats.put("bytes", current.stream().mapToLong(segment -> segment.bytes).sum());
+            stats.put("tests", testNames.size());
+            current.stream().mapToLong(segment -> segment.minTime).filter(time -> time != NO_TIME).min()
+                    .ifPresent(oldest -> stats.put("oldestRun", localDateTime(oldest)));
+            stats.put("retentionDays", retentionDays);
+        }
+        return stats;
+    }
+
+    /**
+     * Renames freshly written segments into place and swaps them in for {@code replaced}.
+     * Called with the append lock held.
+     */
+    private List<Segment> install(List<Path> written, List<Segment> replaced) throws IOException {
+        List<Segment> added = new ArrayList<>();
+        for (Path temp : written) {
+            String name = temp.getFileName().toString();
+            Path target = temp.resolveSibling(name.substring(0, name.length() - TEMP_SUFFIX.length()));
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            added.add(Segment.open(target));
+        }
+        segmentsLock.writeLock().lock();
+        try {
+            List<Segment> next = new ArrayList<>(segments);
+            next.removeAll(replaced);
+            next.addAll(added);
+            segments = List.copyOf(next);
+            for (Segment segment : replaced) {
+                Files.deleteIfExists(segment.path);
+            }
+        } finally {
+            segmentsLock.writeLock().unlock();
+        }
+        return added;
+    }
+
+    private long retentionCutoff() {
+        return retentionDays <= 0 ? NO_TIME : epochSeconds(LocalDateTime.now().minusDays(retentionDays));
+    }
+
+    private void requireEnabled() {
+        if (dir == null) {
+            throw new IllegalStateException("Flaky run store is disabled; set llm.flaky.store.dir");
+        }
+    }
+
+    private static long rowCount(List<Segment> segments) {
+        return segments.stream().mapToLong(segment -> segment.rows).sum();
+    }
+
+    private static long epochSeconds(LocalDateTime time) {
+        return time == null ? NO_TIME : time.toEpochSecond(ZoneOffset.UTC);
+    }
+
+    private static LocalDateTime localDateTime(long epochSeconds) {
+        return epochSeconds == NO_TIME ? null : LocalDateTime.ofEpochSecond(epochSeconds, 0, ZoneOffset.UTC);
+    }
+
+    /**
+     * 64-bit FNV-1a over the fields that identify a run. Strings are hashed char by char with a
+     * separator, so that fields cannot run into each other.
+     */
+    static long fingerprint(String testName, String status, long duration, String errorMsg, long time) {
+        long hash = 0xcbf29ce484222325L;
+        hash = fingerprint(hash, testName);
+        hash = fingerprint(hash, status);
+        hash = fingerprint(hash, errorMsg);
+        hash = (hash ^ duration) * 0x100000001b3L;
+        hash = (hash ^ time) * 0x100000001b3L;
+        return hash ^ (hash >>> 31);
+    }
+
+    private static long fingerprint(long hash, String value) {
+        if (value != null) {
+            for (int i = 0; i < value.length(); i++) {
+                hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+            }
+        }
+        // Tells null from "" and marks the end of the field.
+        return (hash ^ (value == null ? 0x1_0000 : 0x1_0001)) * 0x100000001b3L;
+    }
+
+    /**
+     * Receives the runs of one upload and appends those not stored yet.
+     */
+    public final class Appender implements AutoCloseable {
+
+        private final SegmentWriter writer = new SegmentWriter();
+        // Copies seen in this upload of each run identity that is already stored.
+        private final Map<Long, long[]> seen = new HashMap<>();
+        private final Set<String> added = new HashSet<>();
+        private long skipped;
+        private boolean closed;
+
+        private Appender() {
+        }
+
+        public void add(String testName, String status, long duration, String errorMsg, LocalDateTime executedAt) {
+            long fingerprint = fingerprint(testName, status, duration, errorMsg, epochSeconds(executedAt));
+            long stored = storedCopies(fingerprint);
+            if (stored > 0 && ++seen.computeIfAbsent(fingerprint, key -> new long[1])[0] <= stored) {
+                skipped++;
+                return;
+            }
+            added.add(testName);
+            try {
+                writer.add(testName, status, duration, errorMsg, executedAt);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to write flaky run segment", e);
+            }
+        }
+
+        /**
+         * Makes the appended runs visible and returns how many there were.
+         */
+        public long commit() throws IOException {
+            long appended = writer.totalRows;
+            install(writer.finish(), List.of());
+            testNames.addAll(added);
+            LOGGER.info("Appended " + appended + " flaky runs (" + skipped + " already stored)");
+            if (compactAfterSegments > 0
+                    && segments.stream().filter(segment -> segment.rows < segmentRows).count() > compactAfterSegments) {
+                compact();
+            }
+            return appended;
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                writer.discard();
+            } finally {
+                appendLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Buffers runs in columns and writes a segment file every {@code segmentRows} rows.
+     */
+    private final class SegmentWriter {
+
+        private final List<Path> written = new ArrayList<>();
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<String> dictionary = new ArrayList<>();
+        private long[] times = new long[1024];
+        private long[] durations = new long[1024];
+        private int[] tests = new int[1024];
+        private int[] statuses = new int[1024];
+        private int[] errors = new int[1024];
+        private int rows;
+        private long totalRows;
+
+        void add(String testName, String status, long duration, String errorMsg, LocalDateTime executedAt)
+                throws IOException {
+            if (rows == times.length) {
+                int capacity = Math.min(segmentRows, times.length * 2);
+                times = Arrays.copyOf(times, capacity);
+                durations = Arrays.copyOf(durations, capacity);
+                tests = Arrays.copyOf(tests, capacity);
+                statuses = Arrays.copyOf(statuses, capacity);
+                errors = Arrays.copyOf(errors, capacity);
+            }
+            times[rows] = epochSeconds(executedAt);
+            durations[rows] = duration;
+            tests[rows] = id(testName);
+            statuses[rows] = id(status);
+            errors[rows] = id(errorMsg);
+            rows++;
+            totalRows++;
+            if (rows == segmentRows) {
+                flush();
+            }
+        }
+
+        private int id(String value) {
+            if (value == null) {
+                return -1;
+            }
+            Integer id = ids.get(value);
+            if (id == null) {
+                id = dictionary.size();
+                ids.put(value, id);
+                dictionary.add(value);
+            }
+            return id;
+        }
+
+        private void flush() throws IOException {
+            if (rows == 0) {
+                return;
+            }
+            long minTime = Long.MAX_VALUE;
+            long maxTime = NO_TIME;
+            for (int i = 0; i < rows; i++) {
+                if (times[i] != NO_TIME) {
+                    minTime = Math.min(minTime, times[i]);
+                    maxTime = Math.max(maxTime, times[i]);
+                }
+            }
+
+            Path temp = dir.resolve(String.format("segment-%016d%s%s", nextSequence++, SEGMENT_SUFFIX, TEMP_SUFFIX));
+            written.add(temp);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(rows);
+                out.writeLong(maxTime == NO_TIME ? NO_TIME : minTime);
+                out.writeLong(maxTime);
+                out.writeInt(dictionary.size());
+                for (String value : dictionary) {
+                    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+                for (int i = 0; i < rows; i++) {
+                    out.writeLong(times[i]);
+                }
+                for (int i = 0; i < rows; i++) {
+                    out.writeLong(durations[i]);
+                }
+                for (int i = 0; i < rows; i++) {
+                    out.writeInt(tests[i]);
+                }
+                for (int i = 0; i < rows; i++) {
+                    out.writeInt(statuses[i]);
+                }
+                for (int i = 0; i < rows; i++) {
+                    out.writeInt(errors[i]);
+                }
+            }
+            rows = 0;
+            ids.clear();
+            dictionary.clear();
+        }
+
+        List<Path> finish() throws IOException {
+            flush();
+            List<Path> result = new ArrayList<>(written);
+            written.clear();
+            return result;
+        }
+
+        void discard() {
+            for (Path temp : written) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException e) {
+                    LOGGER.warning("Unable to delete uncommitted segment " + temp + ": " + e.getMessage());
+                }
+            }
+            written.clear();
+        }
+    }
+
+    /**
+     * Receives the runs a segment scan produces.
+     */
+    private interface RunConsumer {
+        void accept(String testName, String status, long duration, String errorMsg, LocalDateTime executedAt)
+                throws IOException;
+    }
+
+    private long storedCopies(long fingerprint) {
+        long copies = 0;
+        for (Segment segment : segments) {
+            copies += segment.copies(fingerprint);
+        }
+        return copies;
+    }
+
+    private static final class Segment {
+        private final Path path;
+        private final long sequence;
+        private final long bytes;
+        private final int rows;
+        private final long minTime;
+        private final long maxTime;
+        // Where the dictionary ends and the columns start.
+        private final int columnsAt;
+        private long[] fingerprints;
+        // Dictionary id of each test name in this segment.
+        private Map<String, Integer> testIds;
+
+        private Segment(Path path, long sequence, long bytes, int rows, long minTime, long maxTime, int columnsAt) {
+            this.path = path;
+            this.sequence = sequence;
+            this.bytes = bytes;
+            this.rows = rows;
+            this.minTime = minTime;
+            this.maxTime = maxTime;
+            this.columnsAt = columnsAt;
+        }
+
+        static Segment open(Path path) throws IOException {
+            String name = path.getFileName().toString();
+            long sequence = Long.parseLong(name.substring("segment-".length(), name.length() - SEGMENT_SUFFIX.length()));
+            MappedByteBuffer buffer = map(path);
+            if (buffer.getInt(0) != MAGIC) {
+                throw new IOException("Not a flaky run segment: " + path);
+            }
+            int columnsAt = 28;
+            for (int i = buffer.getInt(24); i > 0; i--) {
+                columnsAt += Integer.BYTES + buffer.getInt(columnsAt);
+            }
+            Segment segment = new Segment(path, sequence, buffer.capacity(), buffer.getInt(4), buffer.getLong(8),
+                    buffer.getLong(16), columnsAt);
+            segment.index();
+            return segment;
+        }
+
+        private void index() throws IOException {
+            Columns columns = new Columns(this);
+            long[] sorted = new long[rows];
+            Map<String, Integer> ids = new HashMap<>();
+            for (int i = 0; i < rows; i++) {
+                String testName = columns.test(i);
+                sorted[i] = fingerprint(testName, columns.status(i), columns.duration(i), columns.error(i), columns.time(i));
+                if (testName != null) {
+                    ids.putIfAbsent(testName, columns.testId(i));
+                }
+            }
+            Arrays.sort(sorted);
+            fingerprints = sorted;
+            testIds = ids;
+        }
+
+        /**
+         * How many runs of this segment have {@code fingerprint}.
+         */
+        long copies(long fingerprint) {
+            int at = Arrays.binarySearch(fingerprints, fingerprint);
+            if (at < 0) {
+                return 0;
+            }
+            int from = at;
+            int to = at;
+            while (from > 0 && fingerprints[from - 1] == fingerprint) {
+                from--;
+            }
+            while (to + 1 < fingerprints.length && fingerprints[to + 1] == fingerprint) {
+                to++;
+            }
+            return to - from + 1;
+        }
+
+        private static MappedByteBuffer map(Path path) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        }
+
+        /**
+         * Feeds the segment's runs executed at or after {@code cutoff} to {@code consumer}.
+         */
+        void scan(long cutoff, RunConsumer consumer) throws IOException {
+            Columns columns = new Columns(this);
+            for (int i = 0; i < rows; i++) {
+                long time = columns.time(i);
+                if (time != NO_TIME && time < cutoff) {
+                    continue;
+                }
+                consumer.accept(columns.test(i), columns.status(i), columns.duration(i), columns.error(i),
+                        localDateTime(time));
+            }
+        }
+
+        void scan(long cutoff, LLMFlakyHistory history) {
+            try {
+                scan(cutoff, (RunConsumer) history::add);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to read flaky run segment " + path, e);
+            }
+        }
+    }
+
+    /**
+     * A mapped segment's columns and dictionary. Dictionary entries are decoded when first used,
+     * so reading a few rows does not decode the whole dictionary.
+     */
+    private static final class Columns {
+        private final MappedByteBuffer buffer;
+        private final int rows;
+        private final String[] dictionary;
+        private int[] entriesAt;
+        private final int timesAt;
+        private final int durationsAt;
+        private final int testsAt;
+        private final int statusesAt;
+        private final int errorsAt;
+
+        Columns(Segment segment) throws IOException {
+            buffer = Segment.map(segment.path);
+            rows = segment.rows;
+            dictionary = new String[buffer.getInt(24)];
+            timesAt = segment.columnsAt;
+            durationsAt = timesAt + segment.rows * Long.BYTES;
+            testsAt = durationsAt + segment.rows * Long.BYTES;
+            statusesAt = testsAt + segment.rows * Integer.BYTES;
+            errorsAt = statusesAt + segment.rows * Integer.BYTES;
+        }
+
+        long time(int row) {
+            return buffer.getLong(timesAt + row * Long.BYTES);
+        }
+
+        long duration(int row) {
+            return buffer.getLong(durationsAt + row * Long.BYTES);
+        }
+
+        int testId(int row) {
+            return buffer.getInt(testsAt + row * Integer.BYTES);
+        }
+
+        String test(int row) {
+            return lookup(testId(row));
+        }
+
+        String status(int row) {
+            return lookup(buffer.getInt(statusesAt + row * Integer.BYTES));
+        }
+
+        String error(int row) {
+            return lookup(buffer.getInt(errorsAt + row * Integer.BYTES));
+        }
+
+        LLMFlakyTestRunEntry run(int row) {
+            return new LLMFlakyTestRunEntry(test(row), status(row), duration(row), error(row), localDateTime(time(row)));
+        }
+
+        /**
+         * Adds the rows of test {@code testId} executed at or after {@code cutoff} to {@code refs}.
+         */
+        void rowsOf(int testId, long cutoff, int segment, RunRefs refs) {
+            for (int i = 0; i < rows; i++) {
+                long time = time(i);
+                if (testId(i) == testId && (time == NO_TIME || time >= cutoff)) {
+                    refs.add(time, segment, i);
+                }
+            }
+        }
+
+        private String lookup(int id) {
+            if (id < 0) {
+                return null;
+            }
+            if (dictionary[id] == null) {
+                if (entriesAt == null) {
+                    entriesAt = new int[dictionary.length];
+                    int position = 28;
+                    for (int i = 0; i < entriesAt.length; i++) {
+                        entriesAt[i] = position;
+                        position += Integer.BYTES + buffer.getInt(position);
+                    }
+                }
+                byte[] bytes = new byte[buffer.getInt(entriesAt[id])];
+                buffer.get(entriesAt[id] + Integer.BYTES, bytes);
+                dictionary[id] = new String(bytes, StandardCharsets.UTF_8);
+            }
+            return dictionary[id];
+        }
+    }
+
+    /**
+     * Execution time, segment and row of each run found for one test.
+     */
+    private static final class RunRefs {
+        private long[] times = new long[256];
+        private int[] segments = new int[256];
+        private int[] rows = new int[256];
+        private int size;
+
+        void add(long time, int segment, int row) {
+            if (size == times.length) {
+                times = Arrays.copyOf(times, size * 2);
+                segments = Arrays.copyOf(segments, size * 2);
+                rows = Arrays.copyOf(rows, size * 2);
+            }
+            times[size] = time;
+            segments[size] = segment;
+            rows[size] = row;
+            size++;
+        }
+
+        /**
+         * Indexes of the runs, oldest first; runs without a time come first, in store order.
+         */
+        Integer[] oldestFirst() {
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (left, right) -> Long.compare(times[left], times[right]));
+            return order;
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package testleaf.llm;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Logger;
+
+/**
+ * Asks the LLM for a suggestion per flaky test. Tests are packed into chunks of at most
+ * {@code llm.flaky.chunk-tokens} estimated prompt tokens and the chunks are sent concurrently,
+ * at most {@code llm.flaky.max-parallel-chunks} at a time, so latency follows the slowest chunk
+ * rather than one long generation. Each chunk is asked for JSON keyed by test name; replies are
+ * merged in the order of the tests, whatever order the chunks finish in. Tests whose failure
+ * signature already has a suggestion in {@link LLMFlakySuggestionCache} are not sent at all.
+ * <p>
+ * Tests that fail together ({@link LLMFlakyTestResult#getCoFailureGroup()}) are sent as one
+ * incident in a chunk of their own, asking for a single suggestion about their shared cause,
+ * which each of them then gets. An incident over the chunk budget is split the same way
+ * separate tests are, and each part is asked about the shared cause on its own.
+ */
+@Service
+public class LLMFlakySuggester {
+
+    private static final Logger LOGGER = Logger.getLogger(LLMFlakySuggester.class.getName());
+    private static final String NO_SUGGESTION = "No suggestion.";
+    private static final String TEST_NAME_PREFIX = "Test Name: ";
+    private static final String INCIDENT_PREFIX = "Incident ";
+    private static final int COMPLETION_TOKENS_PER_TEST = 250;
+    private static final int MIN_COMPLETION_TOKENS = 500;
+    private static final int MAX_SIGNATURES_IN_PROMPT = 5;
+    private static final int MAX_EXAMPLE_LENGTH = 300;
+
+    private final LLMGateway llmGateway;
+    private final LLMPromptTemplates promptTemplates;
+    private final LLMFlakySuggestionCache cache;
+    private final int chunkTokens;
+    private final int maxParallelChunks;
+    private final long failureBucketMinutes;
+
+    public LLMFlakySuggester(LLMGateway llmGateway, LLMPromptTemplates promptTemplates, LLMFlakySuggestionCache cache,
+                             @Value("${llm.flaky.chunk-tokens:2000}") int chunkTokens,
+                             @Value("${llm.flaky.max-parallel-chunks:4}") int maxParallelChunks,
+                             @Value("${llm.flaky.correlation.bucket-minutes:10}") long failureBucketMinutes) {
+        this.llmGateway = llmGateway;
+        this.promptTemplates = promptTemplates;
+        this.cache = cache;
+        this.chunkTokens = chunkTokens;
+        this.maxParallelChunks = Math.max(1, maxParallelChunks);
+        this.failureBucketMinutes = failureBucketMinutes;
+    }
+
+    /**
+     * Suggestions by test name, in the order of the tests: {@code fresh} from the LLM in this
+     * call, {@code cached} from earlier calls.
+     */
+    public record Suggestions(Map<String, String> fresh, Map<String, String> cached) {
+    }
+
+    /**
+     * Sets each result's suggestion, taking it from the cache where possible and asking the LLM
+     * for the rest. A failed chunk only costs its own tests their suggestions; only when every
+     * chunk fails and nothing came from the cache is the first failure propagated. Failed
+     * suggestions are not cached.
+     */
+    public CompletableFuture<Suggestions> suggest(List<LLMFlakyTestResult> tests,
+                                                  String apiUrl, String apiKey, String model) {
+        Map<String, String> cached = new LinkedHashMap<>();
+        List<LLMFlakyTestResult> uncached = new ArrayList<>();
+        for (LLMFlakyTestResult test : tests) {
+            String suggestion = cache.get(test, apiUrl, model);
+            if (suggestion != null) {
+                test.setSuggestion(suggestion);
+                cached.put(test.getTestName(), suggestion);
+            } else {
+                uncached.add(test);
+            }
+        }
+
+        List<LLMFlakyTestResult> alone = new ArrayList<>();
+        List<Chunk> chunks = incidents(uncached, alone);
+        chunks.addAll(chunk(alone, null));
+        AtomicReferenceArray<Map<String, String>> replies = new AtomicReferenceArray<>(chunks.size());
+        AtomicReferenceArray<Throwable> failures = new AtomicReferenceArray<>(chunks.size());
+        AtomicInteger next = new AtomicInteger();
+
+        List<CompletableFuture<Void>> lanes = new ArrayList<>();
+        for (int i = 0; i < Math.min(maxParallelChunks, chunks.size()); i++) {
+            lanes.add(lane(next, chunks, replies, failures, apiUrl, apiKey, model));
+        }
+
+        return CompletableFuture.allOf(lanes.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            Throwable firstFailure = null;
+            boolean anySucceeded = chunks.isEmpty() || !cached.isEmpty();
+            List<LLMFlakyTestResult> answered = new ArrayList<>();
+            for (int i = 0; i < chunks.size(); i++) {
+                Map<String, String> reply = replies.get(i);
+                Throwable failure = failures.get(i);
+                if (failure != null && firstFailure == null) {
+                    firstFailure = failure;
+                }
+                anySucceeded |= failure == null;
+                Chunk chunk = chunks.get(i);
+                for (LLMFlakyTestResult test : chunk.tests()) {
+                    String answer = failure != null ? null : chunk.answerFor(test, reply);
+                    test.setSuggestion(failure != null
+                            ? "Suggestion unavailable: " + LLMGateway.unwrap(failure).getMessage()
+                            : answer != null ? answer : NO_SUGGESTION);
+                    if (answer != null) {
+                        answered.add(test);
+                    }
+                }
+            }
+            if (!anySucceeded) {
+                throw new CompletionException(LLMGateway.unwrap(firstFailure));
+            }
+            Map<String, String> suggestions = new LinkedHashMap<>();
+            for (LLMFlakyTestResult test : uncached) {
+                suggestions.put(test.getTestName(), test.getSuggestion());
+            }
+            cache.putAll(answered, apiUrl, model);
+            return new Suggestions(suggestions, cached);
+        });
+    }
+
+    /**
+     * Runs chunks one after another until none are left; {@code maxParallelChunks} lanes share
+     * the work.
+     */
+    private CompletableFuture<Void> lane(AtomicInteger next, List<Chunk> chunks,
+                                         AtomicReferenceArray<Map<String, String>> replies,
+                                         AtomicReferenceArray<Throwable> failures,
+                                         String apiUrl, String apiKey, String model) {
+        int index = next.getAndIncrement();
+        if (index >= chunks.size()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return callLLMAsync(chunks.get(index), apiUrl, apiKey, model)
+                .handle((content, error) -> {
+                    if (error != null) {
+                        LOGGER.warning("Flaky suggestion chunk " + (index + 1) + "/" + chunks.size()
+                                + " failed: " + LLMGateway.unwrap(error).getMessage());
+                        failures.set(index, error);
+                    } else {
+                        replies.set(index, parseSuggestions(content));
+                    }
+                    return null;
+                })
+                .thenCompose(done -> lane(next, chunks, replies, failures, apiUrl, apiKey, model));
+    }
+
+    /**
+     * Greedy packing in the given order; a test larger than the budget gets a chunk of its own.
+     * {@code incident} names the co-failure group the tests belong to, null for separate tests.
+     */
+    private List<Chunk> chunk(List<LLMFlakyTestResult> tests, String incident) {
+        List<Chunk> chunks = new ArrayList<>();
+        List<LLMFlakyTestResult> current = new ArrayList<>();
+        StringBuilder prompt = new StringBuilder();
+        int currentTokens = 0;
+        for (LLMFlakyTestResult test : tests) {
+            String testPrompt = buildPrompt(test);
+            int tokens = LLMTokenEstimator.estimate(testPrompt);
+            if (!current.isEmpty() && currentTokens + tokens > chunkTokens) {
+                chunks.add(new Chunk(current, prompt.toString(), incident));
+                current = new ArrayList<>();
+                prompt.setLength(0);
+                currentTokens = 0;
+            }
+            current.add(test);
+            prompt.append(testPrompt).append("\n");
+            currentTokens += tokens;
+        }
+        if (!current.isEmpty()) {
+            chunks.add(new Chunk(current, prompt.toString(), incident));
+        }
+        return chunks;
+    }
+
+    /**
+     * Chunks for each co-failure group with at least two tests left to send, one unless the
+     * group is over the chunk budget; the other tests are added to {@code alone}.
+     */
+    private List<Chunk> incidents(List<LLMFlakyTestResult> tests, List<LLMFlakyTestResult> alone) {
+        Map<Integer, List<LLMFlakyTestResult>> groups = new LinkedHashMap<>();
+        for (LLMFlakyTestResult test : tests) {
+            if (test.getCoFailureGroup() > 0) {
+                groups.computeIfAbsent(test.getCoFailureGroup(), group -> new ArrayList<>()).add(test);
+            }
+        }
+        List<Chunk> chunks = new ArrayList<>();
+        for (LLMFlakyTestResult test : tests) {
+            List<LLMFlakyTestResult> group = groups.get(test.getCoFailureGroup());
+            if (group == null || group.size() < 2) {
+                alone.add(test);
+            } else if (group.get(0) == test) {
+                chunks.addAll(chunk(group, INCIDENT_PREFIX + test.getCoFailureGroup()));
+            }
+        }
+        return chunks;
+    }
+
+    /**
+     * {@code incident} names a co-failure group sent as one incident, null for separate tests.
+     */
+    private record Chunk(List<LLMFlakyTestResult> tests, String prompt, String incident) {
+
+        /**
+         * The reply's suggestion for {@code test}; a test of an incident gets the incident's
+         * unless the reply names the test itself.
+         */
+        String answerFor(LLMFlakyTestResult test, Map<String, String> reply) {
+            String answer = reply.get(test.getTestName());
+            return answer == null && incident != null ? reply.get(incident) : answer;
+        }
+    }
+
+    /**
+     * One test's section of the prompt. Failures are summarized as error signatures with counts
+     * and one example each; recent runs refer to those signatures instead of repeating messages.
+     */
+    private String buildPrompt(LLMFlakyTestResult result) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(TEST_NAME_PREFIX).append(result.getTestName()).append("\n");
+        sb.append("Fail Rate: ").append(String.format("%.2f", result.getFailRate() * 100)).append("%")
+                .append(" (").append(result.getFailCount()).append(" of ").append(result.getTotalRuns()).append(" runs)\n");
+        sb.append("Duration: avg ").append(Math.round(result.getAvgDuration())).append("ms, p50 ")
+                .append(result.getP50Duration()).append("ms, p95 ").append(result.getP95Duration())
+                .append("ms, p99 ").append(result.getP99Duration()).append("ms, max ")
+                .append(result.getMaxDuration()).append("ms\n");
+        if (result.isDurationDrifting()) {
+            sb.append("Duration Drift: p95 grew ").append(String.format("%.1f", result.getDurationDriftRatio()))
+                    .append("x over the previous time window\n");
+        }
+
+        List<LLMErrorSignature> signatures = result.getErrorSignatures() == null ? List.of() : result.getErrorSignatures();
+        Map<String, String> labels = new HashMap<>();
+        if (!signatures.isEmpty()) {
+            sb.append("Error Signatures:\n");
+        }
+        for (int i = 0; i < signatures.size(); i++) {
+            LLMErrorSignature signature = signatures.get(i);
+            String label = "E" + (i + 1);
+            signature.variants().forEach(variant -> labels.put(variant, label));
+            if (i < MAX_SIGNATURES_IN_PROMPT) {
+                sb.append("- ").append(label).append(" (").append(signature.getCount()).append("x, last ")
+                        .append(signature.getLastSeen()).append("): ").append(signature.getSignature()).append("\n")
+                        .append("  Example: ").append(abbreviate(signature.getExample())).append("\n");
+            }
+        }
+        if (signatures.size() > MAX_SIGNATURES_IN_PROMPT) {
+            long rest = signatures.stream().skip(MAX_SIGNATURES_IN_PROMPT).mapToLong(LLMErrorSignature::getCount).sum();
+            sb.append("- ").append(signatures.size() - MAX_SIGNATURES_IN_PROMPT).append(" rarer signatures, ")
+                    .append(rest).append(" failures in total\n");
+        }
+
+        sb.append("Recent Runs:\n");
+        for (LLMFlakyTestRunEntry run : result.getRuns()) {
+            sb.append("- [")
+                    .append(run.getExecutedAt()).append("] ")
+                    .append(run.getStatus()).append(" | ")
+                    .append(run.getDuration()).append("ms");
+            if (run.getErrorMsg() != null && !run.getErrorMsg().isBlank()) {
+                String label = labels.get(LLMErrorSignatures.normalize(run.getErrorMsg()));
+                sb.append(" | ").append(label != null ? label : abbreviate(run.getErrorMsg()));
+            }
+            sb.append("\n");
+        }
+        return sb.toString();
+    }
+
+    private static String abbreviate(String text) {
+        if (text == null) {
+            return "";
+        }
+        String flat = text.replaceAll("\\s+", " ").trim();
+        return flat.length() <= MAX_EXAMPLE_LENGTH ? flat : flat.substring(0, MAX_EXAMPLE_LENGTH) + "...";
+    }
+
+    private CompletableFuture<String> callLLMAsync(Chunk chunk, String apiUrl, String apiKey, String model) {
+        LLMChatRequest request = new LLMChatRequest(apiUrl, apiKey, model)
+                .task("flaky")
+                .temperature(0.3)
+                .message("system", promptTemplates.get("flaky-system").bind())
+                .maxTokens(Math.max(MIN_COMPLETION_TOKENS, COMPLETION_TOKENS_PER_TEST * chunk.tests().size()));
+        if (chunk.incident() != null) {
+            request.message("user", promptTemplates.get("flaky-incident-user").bind("incident", chunk.incident(),
+                    "bucketMinutes", String.valueOf(failureBucketMinutes), "tests", chunk.prompt()));
+        } else {
+            request.message("user", promptTemplates.get("flaky-user").bind("tests", chunk.prompt()));
+        }
+
+        return llmGateway.completeAsync(request, "flaky-suggestions", this::extractContent);
+    }
+
+    private String extractContent(String responseBody) {
+        return LLMCompletion.parse(responseBody).requireContent();
+    }
+
+    /**
+     * Reads the {@code {"suggestions": [{"testName", "suggestion"}]}} object the prompt asks for,
+     * ignoring reasoning or code fences around it. Replies that are not JSON fall back to
+     * splitting on {@code Test Name:} lines.
+     */
+    Map<String, String> parseSuggestions(String rawResponse) {
+        Map<String, String> suggestions = new LinkedHashMap<>();
+        String text = rawResponse;
+        int thinkEnd = text.lastIndexOf("</think>");
+        if (thinkEnd >= 0) {
+            text = text.substring(thinkEnd + "</think>".length());
+        }
+        int start = text.indexOf('{');
+        int end = text.lastIndexOf('}');
+        if (start >= 0 && end > start) {
+            try {
+                JsonNode items = LLMJson.MAPPER.readTree(text.substring(start, end + 1)).path("suggestions");
+                for (JsonNode item : items) {
+                    String testName = item.path("testName").asText(null);
+                    if (testName != null) {
+                        JsonNode suggestion = item.path("suggestion");
+                        suggestions.put(testName.trim(), suggestion.isValueNode() ? suggestion.asText() : suggestion.toString());
+                    }
+                }
+                if (!suggestions.isEmpty()) {
+                    return suggestions;
+                }
+            } catch (IOException e) {
+                LOGGER.fine("Flaky suggestions are not JSON, reading them as text: " + e.getMessage());
+            }
+        }
+        return parseSuggestionText(text);
+    }
+
+    private static Map<String, String> parseSuggestionText(String text) {
+        Map<String, String> suggestions = new LinkedHashMap<>();
+        String currentTest = null;
+        StringBuilder current = new StringBuilder();
+
+        for (String line : text.split("\n")) {
+            if (line.startsWith(TEST_NAME_PREFIX)) {
+                if (currentTest != null) {
+                    suggestions.put(currentTest, current.toString());
+                }
+                currentTest = line.substring(TEST_NAME_PREFIX.length()).trim();
+                current.setLength(0);
+            } else if (currentTest != null) {
+                current.append(line).append("\n");
+            }
+        }
+        if (currentTest != null) {
+            suggestions.put(currentTest, current.toString());
+        }
+        return suggestions;
+    }
+}
@@ -0,0 +1,177 @@
+package testleaf.llm;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Flaky-test suggestions kept across analyses, keyed by test name, the endpoint and model asked,
+ * and the test's failure signature: the texts of its most frequent clustered error signatures,
+ * without their counts. The endpoint is part of the key because providers serving a model under
+ * the same name need not answer alike. A test is only sent to the LLM again once it fails in a
+ * new way, a different endpoint or model is asked, or its entry has expired. Entries are held in an LRU bounded by count and age; with
+ * {@code llm.flaky.suggestion-cache.file} set they are also written to that file and read back
+ * at startup.
+ */
+@Component
+public class LLMFlakySuggestionCache {
+
+    private static final Logger LOGGER = Logger.getLogger(LLMFlakySuggestionCache.class.getName());
+    // Same number of signatures the suggester puts in a prompt.
+    private static final int SIGNATURES_IN_KEY = 5;
+
+    private final ObjectMapper mapper = LLMJson.MAPPER;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final boolean enabled;
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final Path file;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public LLMFlakySuggestionCache(@Value("${llm.flaky.suggestion-cache.enabled:true}") boolean enabled,
+                                   @Value("${llm.flaky.suggestion-cache.max-entries:2000}") int maxEntries,
+                                   @Value("${llm.flaky.suggestion-cache.ttl-seconds:604800}") long ttlSeconds,
+                                   @Value("${llm.flaky.suggestion-cache.file:}") String file) {
+        this.enabled = enabled;
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlSeconds * 1000;
+        this.file = enabled && file != null && !file.isBlank() ? Paths.get(file) : null;
+        load();
+    }
+
+    record Entry(String testName, String apiUrl, String model, String signature, String suggestion, long createdAt) {
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * The failure signature of {@code result}: its top clustered signatures, sorted so that a
+     * change in their relative counts does not count as a new failure.
+     */
+    static String signatureOf(LLMFlakyTestResult result) {
+        List<LLMErrorSignature> signatures = result.getErrorSignatures() == null ? List.of() : result.getErrorSignatures();
+        TreeSet<String> top = new TreeSet<>();
+        for (int i = 0; i < Math.min(SIGNATURES_IN_KEY, signatures.size()); i++) {
+            top.add(signatures.get(i).getSignature());
+        }
+        return String.join("\n", top);
+    }
+
+    private static String keyOf(String testName, String apiUrl, String model, String signature) {
+        return testName + '\u0000' + (apiUrl == null ? "" : apiUrl) + '\u0000' + (model == null ? "" : model)
+                + '\u0000' + signature;
+    }
+
+    public String get(LLMFlakyTestResult result, String apiUrl, String model) {
+        if (!enabled) {
+            return null;
+        }
+        String key = keyOf(result.getTestName(), apiUrl, model, signatureOf(result));
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            Entry cached = entries.get(key);
+            if (cached != null) {
+                if (cached.createdAt() + ttlMillis > now) {
+                    hits.incrementAndGet();
+                    return cached.suggestion();
+                }
+                entries.remove(key);
+                evictions.incrementAndGet();
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Stores the suggestions of {@code results} for {@code apiUrl} and {@code model} and rewrites
+     * the file once.
+     */
+    public void putAll(List<LLMFlakyTestResult> results, String apiUrl, String model) {
+        if (!enabled || results.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            for (LLMFlakyTestResult result : results) {
+                String signature = signatureOf(result);
+                entries.put(keyOf(result.getTestName(), apiUrl, model, signature),
+                        new Entry(result.getTestName(), apiUrl, model, signature, result.getSuggestion(), now));
+            }
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (entries.size() > maxEntries && eldest.hasNext()) {
+                eldest.next();
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+            save();
+        }
+    }
+
+    public Map<String, Long> stats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("evictions", evictions.get());
+        synchronized (this) {
+            stats.put("entries", (long) entries.size());
+        }
+        return stats;
+    }
+
+    private void load() {
+        if (file == null || !Files.exists(file)) {
+            return;
+        }
+        try {
+            List<Entry> saved = mapper.readValue(file.toFile(), new TypeReference<List<Entry>>() {
+            });
+            long now = System.currentTimeMillis();
+            for (Entry entry : saved) {
+                if (entry.createdAt() + ttlMillis > now) {
+                    entries.put(keyOf(entry.testName(), entry.apiUrl(), entry.model(), entry.signature()), entry);
+                }
+            }
+            LOGGER.info("Loaded " + entries.size() + " cached flaky suggestions from " + file);
+        } catch (IOException e) {
+            LOGGER.warning("Ignoring unreadable flaky suggestion cache " + file + ": " + e.getMessage());
+        }
+    }
+
+    // Called with the monitor held.
+    private void save() {
+        if (file == null) {
+            return;
+        }
+        try {
+            Path dir = file.toAbsolutePath().getParent();
+            Files.createDirectories(dir);
+            Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+            mapper.writeValue(tmp.toFile(), new ArrayList<>(entries.values()));
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.warning("Failed to write flaky suggestion cache " + file + ": " + e.getMessage());
+        }
+    }
+}
@@ -5,8 +5,12 @@ import java.util.Map;
 
 public class LLMFlakyTestResponse {
 
+    // Set once the analysis is kept for paging through run details
+    private String analysisId;
     private List<LLMFlakyTestResult> flakyTests;  // renamed from topFlakyTests
+    // Fresh from the LLM in this analysis; suggestions reused from earlier analyses are in cachedSuggestions
     private Map<String, String> llmSuggestions;
+    private Map<String, String> cachedSuggestions;
 
     public LLMFlakyTestResponse() {}
 
@@ -19,6 +23,14 @@ public class LLMFlakyTestResponse {
         this.llmSuggestions = llmSuggestions;
     }
 
+    public String getAnalysisId() {
+        return analysisId;
+    }
+
+    public void setAnalysisId(String analysisId) {
+        this.analysisId = analysisId;
+    }
+
     public List<LLMFlakyTestResult> getFlakyTests() {
         return flakyTests;
     }
@@ -34,5 +46,12 @@ public class LLMFlakyTestResponse {
     public void setLlmSuggestions(Map<String, String> llmSuggestions) {
         this.llmSuggestions = llmSuggestions;
     }
-}
 
+    public Map<String, String> getCachedSuggestions() {
+        return cachedSuggestions;
+    }
+
+    public void setCachedSuggestions(Map<String, String> cachedSuggestions) {
+        this.cachedSuggestions = cachedSuggestions;
+    }
+}
@@ -18,6 +18,32 @@ public class LLMFlakyTestResult {
     private int failCount;
     private int totalRuns;
 
+    // Aggregated over every run, not only the recent ones in runs
+    private LocalDateTime lastFailureAt;
+    private double avgDuration;
+    private double durationStdDev;
+    private long minDuration;
+    private long maxDuration;
+    private List<LLMErrorSignature> errorSignatures;
+
+    // Duration quantiles (from a sketch, within 2%); drift compares the p95 of the last two time windows
+    private long p50Duration;
+    private long p95Duration;
+    private long p99Duration;
+    private double durationDriftRatio;
+    private boolean durationDrifting;
+
+    // Flakiness scores; classification is FLAKY, BROKEN, FIXED or STABLE
+    private double flipRate;
+    private double failProbabilityLow;
+    private double failProbabilityHigh;
+    private double recencyWeightedFailRate;
+    private String classification;
+
+    // Reported tests whose failures share time buckets; group 0 means the test fails on its own
+    private int coFailureGroup;
+    private List<String> coFailingTests;
+
     // Constructors
     public LLMFlakyTestResult() {}
 
@@ -102,4 +128,148 @@ public class LLMFlakyTestResult {
     public void setTotalRuns(int totalRuns) {
         this.totalRuns = totalRuns;
     }
+
+    public LocalDateTime getLastFailureAt() {
+        return lastFailureAt;
+    }
+
+    public void setLastFailureAt(LocalDateTime lastFailureAt) {
+        this.lastFailureAt = lastFailureAt;
+    }
+
+    public double getAvgDuration() {
+        return avgDuration;
+    }
+
+    public void setAvgDuration(double avgDuration) {
+        this.avgDuration = avgDuration;
+    }
+
+    public double getDurationStdDev() {
+        return durationStdDev;
+    }
+
+    public void setDurationStdDev(double durationStdDev) {
+        this.durationStdDev = durationStdDev;
+    }
+
+    public long getMinDuration() {
+        return minDuration;
+    }
+
+    public void setMinDuration(long minDuration) {
+        this.minDuration = minDuration;
+    }
+
+    public long getMaxDuration() {
+        return maxDuration;
+    }
+
+    public void setMaxDuration(long maxDuration) {
+        this.maxDuration = maxDuration;
+    }
+
+    public List<LLMErrorSignature> getErrorSignatures() {
+        return errorSignatures;
+    }
+
+    public void setErrorSignatures(List<LLMErrorSignature> errorSignatures) {
+        this.errorSignatures = errorSignatures;
+    }
+
+    public double getFlipRate() {
+        return flipRate;
+    }
+
+    public void setFlipRate(double flipRate) {
+        this.flipRate = flipRate;
+    }
+
+    public double getFailProbabilityLow() {
+        return failProbabilityLow;
+    }
+
+    public void setFailProbabilityLow(double failProbabilityLow) {
+        this.failProbabilityLow = failProbabilityLow;
+    }
+
+    public double getFailProbabilityHigh() {
+        return failProbabilityHigh;
+    }
+
+    public void setFailProbabilityHigh(double failProbabilityHigh) {
+        this.failProbabilityHigh = failProbabilityHigh;
+    }
+
+    public double getRecencyWeightedFailRate() {
+        return recencyWeightedFailRate;
+    }
+
+    public void setRecencyWeightedFailRate(double recencyWeightedFailRate) {
+        this.recencyWeightedFailRate = recencyWeightedFailRate;
+    }
+
+    public String getClassification() {
+        return classification;
+    }
+
+    public void setClassification(String classification) {
+        this.classification = classification;
+    }
+
+    public long getP50Duration() {
+        return p50Duration;
+    }
+
+    public void setP50Duration(long p50Duration) {
+        this.p50Duration = p50Duration;
+    }
+
+    public long getP95Duration() {
+        return p95Duration;
+    }
+
+    public void setP95Duration(long p95Duration) {
+        this.p95Duration = p95Duration;
+    }
+
+    public long getP99Duration() {
+        return p99Duration;
+    }
+
+    public void setP99Duration(long p99Duration) {
+        this.p99Duration = p99Duration;
+    }
+
+    public double getDurationDriftRatio() {
+        return durationDriftRatio;
+    }
+
+    public void setDurationDriftRatio(double durationDriftRatio) {
+        this.durationDriftRatio = durationDriftRatio;
+    }
+
+    public boolean isDurationDrifting() {
+        return durationDrifting;
+    }
+
+    public void setDurationDrifting(boolean durationDrifting) {
+        this.durationDrifting = durationDrifting;
+    }
+
+    public int getCoFailureGroup() {
+        return coFailureGroup;
+    }
+
+    public void setCoFailureGroup(int coFailureGroup) {
+        this.coFailureGroup = coFailureGroup;
+    }
+
+    public List<String> getCoFailingTests() {
+        return coFailingTests;
+    }
+
+    public void setCoFailingTests(List<String> coFailingTests) {
+        this.coFailingTests = coFailingTests;
+    }
 }
@@ -0,0 +1,292 @@
+package testleaf.llm;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Running aggregate of one test's history: run and failure counts, the latest failure,
+ * duration mean/variance (Welford), a duration quantile sketch, failure counts per normalized
+ * error message and the most recent runs, capped at a fixed sample size.
+ * Its size does not grow with the number of runs folded into it.
+ * <p>
+ * For drift detection, durations are also sketched per time window of {@code driftWindowSeconds}
+ * (aligned to the epoch, so every partial agrees on the boundaries). Only the two latest windows
+ * seen are kept; older runs only count towards the overall sketch.
+ * <p>
+ * For co-failure correlation, the epoch-aligned buckets of {@code failureBucketSeconds} in
+ * which the test failed are kept as {@link LLMFailureBuckets}.
+ */
+public final class LLMFlakyTestStats {
+
+    // Distinct error signatures kept per test; further ones are counted under OTHER_ERRORS.
+    private static final int MAX_SIGNATURES = 32;
+    private static final String OTHER_ERRORS = "<other errors>";
+    // Runs a window needs before its durations are compared with another window's.
+    static final int MIN_WINDOW_RUNS = 5;
+    private static final long NO_WINDOW = Long.MIN_VALUE;
+
+    private final String testName;
+    private final long driftWindowSeconds;
+    private final long failureBucketSeconds;
+    private final LLMRecentRuns recent;
+
+    private long totalRuns;
+    private long failCount;
+    private long lastFailureAt = LLMRecentRuns.NO_TIME;
+    private String lastFailureMessage;
+
+    private long minDuration = Long.MAX_VALUE;
+    private long maxDuration = Long.MIN_VALUE;
+    private double meanDuration;
+    private double durationM2;
+    private final LLMDurationSketch durations = new LLMDurationSketch();
+    private long latestWindow = NO_WINDOW;
+    private LLMDurationSketch latestDurations;
+    private long previousWindow = NO_WINDOW;
+    private LLMDurationSketch previousDurations;
+
+    // Created on the first failure; most tests never fail.
+    private Map<String, LLMErrorSignature> errors;
+    private LLMFailureBuckets failureBuckets;
+
+    public LLMFlakyTestStats(String testName, int recentCapacity, long driftWindowSeconds, long failureBucketSeconds) {
+        this.testName = testName;
+        this.driftWindowSeconds = driftWindowSeconds;
+        this.failureBucketSeconds = failureBucketSeconds;
+        this.recent = new LLMRecentRuns(recentCapacity);
+    }
+
+    public void add(String status, long duration, String errorMsg, LocalDateTime executedAt) {
+        totalRuns++;
+        boolean failed = "FAILED".equalsIgnoreCase(status);
+        if (failed) {
+            failCount++;
+            long time = LLMRecentRuns.epochSeconds(executedAt);
+            if (lastFailureAt == LLMRecentRuns.NO_TIME || (time != LLMRecentRuns.NO_TIME && time >= lastFailureAt)) {
+                lastFailureAt = time;
+                lastFailureMessage = errorMsg;
+            }
+            if (time != LLMRecentRuns.NO_TIME && failureBucketSeconds > 0) {
+                failureBuckets().add(Math.floorDiv(time, failureBucketSeconds));
+            }
+            if (errorMsg != null && !errorMsg.isBlank()) {
+                signatureFor(LLMErrorSignatures.normalize(errorMsg)).add(errorMsg, executedAt);
+            }
+        }
+
+        minDuration = Math.min(minDuration, duration);
+        maxDuration = Math.max(maxDuration, duration);
+        double delta = duration - meanDuration;
+        meanDuration += delta / totalRuns;
+        durationM2 += delta * (duration - meanDuration);
+        durations.add(duration);
+        LLMDurationSketch window = windowSketch(windowOf(executedAt));
+        if (window != null) {
+            window.add(duration);
+        }
+
+        long time = LLMRecentRuns.epochSeconds(executedAt);
+        if (recent.accepts(time)) {
+            recent.add(time, duration, status, errorMsg);
+        }
+    }
+
+    /**
+     * Adds another partial aggregate of the same test, as if its runs had been added here.
+     * Merging is associative, so partials built over any split of the input can be combined
+     * in any grouping.
+     */
+    public void merge(LLMFlakyTestStats other) {
+        if (other.totalRuns == 0) {
+            return;
+        }
+        if (other.failCount > 0 && (failCount == 0 || lastFailureAt == LLMRecentRuns.NO_TIME
+                || (other.lastFailureAt != LLMRecentRuns.NO_TIME && other.lastFailureAt >= lastFailureAt))) {
+            lastFailureAt = other.lastFailureAt;
+            lastFailureMessage = other.lastFailureMessage;
+        }
+        failCount += other.failCount;
+        if (other.errors != null) {
+            other.errors.forEach((signature, occurrences) -> signatureFor(signature).merge(occurrences));
+        }
+        if (other.failureBuckets != null) {
+            failureBuckets().merge(other.failureBuckets);
+        }
+
+        // Chan et al.'s pairwise update for mean and sum of squared deviations.
+        long runs = totalRuns + other.totalRuns;
+        double delta = other.meanDuration - meanDuration;
+        meanDuration += delta * other.totalRuns / runs;
+        durationM2 += other.durationM2 + delta * delta * totalRuns * other.totalRuns / runs;
+        totalRuns = runs;
+        minDuration = Math.min(minDuration, other.minDuration);
+        maxDuration = Math.max(maxDuration, other.maxDuration);
+        durations.merge(other.durations);
+        // Oldest first, so a window that ends up among the latest two keeps every run of it.
+        mergeWindow(other.previousWindow, other.previousDurations);
+        mergeWindow(other.latestWindow, other.latestDurations);
+        recent.merge(other.recent);
+    }
+
+    private long windowOf(LocalDateTime executedAt) {
+        if (executedAt == null || driftWindowSeconds <= 0) {
+            return NO_WINDOW;
+        }
+        return Math.floorDiv(executedAt.toEpochSecond(ZoneOffset.UTC), driftWindowSeconds);
+    }
+
+    /**
+     * The sketch for {@code window}, opening it if it is one of the two latest windows seen, or
+     * null if it is older than both.
+     */
+    private LLMDurationSketch windowSketch(long window) {
+        if (window == NO_WINDOW) {
+            return null;
+        }
+        if (window == latestWindow) {
+            return latestDurations;
+        }
+        if (window == previousWindow) {
+            return previousDurations;
+        }
+        if (window > latestWindow) {
+            previousWindow = latestWindow;
+            previousDurations = latestDurations;
+            latestWindow = window;
+            latestDurations = new LLMDurationSketch();
+            return latestDurations;
+        }
+        if (window > previousWindow) {
+            previousWindow = window;
+            previousDurations = new LLMDurationSketch();
+            return previousDurations;
+        }
+        return null;
+    }
+
+    private void mergeWindow(long window, LLMDurationSketch sketch) {
+        if (sketch == null) {
+            return;
+        }
+        LLMDurationSketch target = windowSketch(window);
+        if (target != null) {
+            target.merge(sketch);
+        }
+    }
+
+    private LLMFailureBuckets failureBuckets() {
+        if (failureBuckets == null) {
+            failureBuckets = new LLMFailureBuckets();
+        }
+        return failureBuckets;
+    }
+
+    private LLMErrorSignature signatureFor(String signature) {
+        if (errors == null) {
+            errors = new HashMap<>(4);
+        }
+        LLMErrorSignature existing = errors.get(signature);
+        if (existing != null) {
+            return existing;
+        }
+        String key = errors.size() < MAX_SIGNATURES ? signature : OTHER_ERRORS;
+        return errors.computeIfAbsent(key, LLMErrorSignature::new);
+    }
+
+    /**
+     * The time buckets this test failed in, or null if it never failed at a known time.
+     */
+    LLMFailureBuckets getFailureBuckets() {
+        return failureBuckets;
+    }
+
+    public String getTestName() {
+        return testName;
+    }
+
+    public long getTotalRuns() {
+        return totalRuns;
+    }
+
+    public long getFailCount() {
+        return failCount;
+    }
+
+    public double getFailRate() {
+        return totalRuns == 0 ? 0.0 : (double) failCount / totalRuns;
+    }
+
+    public LocalDateTime getLastFailureAt() {
+        return lastFailureAt == LLMRecentRuns.NO_TIME ? null : LocalDateTime.ofEpochSecond(lastFailureAt, 0, ZoneOffset.UTC);
+    }
+
+    public String getLastFailureMessage() {
+        return lastFailureMessage;
+    }
+
+    public long getMinDuration() {
+        return totalRuns == 0 ? 0 : minDuration;
+    }
+
+    public long getMaxDuration() {
+        return totalRuns == 0 ? 0 : maxDuration;
+    }
+
+    public double getMeanDuration() {
+        return meanDuration;
+    }
+
+    public double getDurationStdDev() {
+        return totalRuns < 2 ? 0.0 : Math.sqrt(durationM2 / (totalRuns - 1));
+    }
+
+    public long getDurationQuantile(double q) {
+        return durations.quantile(q);
+    }
+
+    /**
+     * p95 duration of the latest time window, or 0 if it has fewer than {@value #MIN_WINDOW_RUNS} runs.
+     */
+    public long getLatestWindowP95() {
+        return latestDurations == null || latestDurations.getCount() < MIN_WINDOW_RUNS ? 0 : latestDurations.quantile(0.95);
+    }
+
+    /**
+     * p95 duration of the window before the latest one, or 0 if it has fewer than
+     * {@value #MIN_WINDOW_RUNS} runs.
+     */
+    public long getPreviousWindowP95() {
+        return previousDurations == null || previousDurations.getCount() < MIN_WINDOW_RUNS ? 0 : previousDurations.quantile(0.95);
+    }
+
+    /**
+     * Latest window's p95 duration over the previous window's, or 0 when either window has too
+     * few runs to compare.
+     */
+    public double getDurationDriftRatio() {
+        long latest = getLatestWindowP95();
+        long previous = getPreviousWindowP95();
+        if (latest == 0 || previous == 0) {
+            return 0.0;
+        }
+        return (double) latest / previous;
+    }
+
+    /**
+     * Failure counts per normalized error message, not yet clustered.
+     */
+    public List<LLMErrorSignature> getErrorSignatures() {
+        return errors == null ? new ArrayList<>() : new ArrayList<>(errors.values());
+    }
+
+    /**
+     * The kept runs, oldest first.
+     */
+    public List<LLMFlakyTestRunEntry> getRecentRuns() {
+        return recent.toEntries(testName);
+    }
+}
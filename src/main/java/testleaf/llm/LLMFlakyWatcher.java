@@ -0,0 +1,527 @@
+package testleaf.llm;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * Keeps flaky-test aggregates current from a local directory of result files
+ * ({@code llm.flaky.watch.dir}), so an analysis only has to run the LLM stage. A daemon thread
+ * reads every file once at startup, then follows {@link WatchService} events for the directory
+ * and its subdirectories:
+ * <ul>
+ * <li>CSV and newline-delimited JSON files are tailed: only the complete lines after the stored
+ * byte offset are read, with a CSV file's header line kept for later reads. A file that shrinks
+ * is read again from the start, replacing what it contributed before.</li>
+ * <li>JUnit XML reports, zips of them and JSON arrays are read whole whenever their size or
+ * modification time changes, replacing what the file contributed before. A file that fails to
+ * parse, usually because it is still being written, is retried on its next change.</li>
+ * </ul>
+ * Aggregates cannot be un-merged, so each file's runs are also kept as a history of their own.
+ * Appended lines are merged into both; when a file's contribution is replaced, the live history
+ * is rebuilt from every file's contribution, which costs the number of tests times the number of
+ * files rather than a re-read. This keeps about twice the aggregates in memory. The runs of a
+ * deleted file, or of the files under a deleted directory, stay counted.
+ * <p>
+ * Each batch is parsed into a history of its own before it is merged into the live one under a
+ * lock, so readers never see half a file. Offsets are kept in memory only, like the aggregates:
+ * after a restart the directory is read again from the start.
+ */
+@Component
+public class LLMFlakyWatcher {
+
+    private static final Logger LOGGER = Logger.getLogger(LLMFlakyWatcher.class.getName());
+    private static final int BLOCK_SIZE = 8192;
+
+    private enum Mode { TAIL, WHOLE }
+
+    private final LLMFlakyAnalyzer analyzer;
+    private final Path dir;
+    // Guarded by historyLock; replaced whole when it is rebuilt.
+    private LLMFlakyHistory history;
+    private final ReentrantLock historyLock = new ReentrantLock();
+    // Runs of deleted files. Only used by the watcher thread, like the file contributions.
+    private final LLMFlakyHistory deletedFiles;
+
+    private final Map<Path, FileState> files = new ConcurrentHashMap<>();
+    // Only used by the watcher thread.
+    private final Map<WatchKey, Path> keys = new HashMap<>();
+    private WatchService watchService;
+    private volatile boolean running;
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile LocalDateTime lastIngestAt;
+
+    public LLMFlakyWatcher(LLMFlakyAnalyzer analyzer, @Value("${llm.flaky.watch.dir:}") String dir) {
+        this.analyzer = analyzer;
+        this.dir = dir == null || dir.isBlank() ? null : Paths.get(dir).toAbsolutePath().normalize();
+        this.history = this.dir == null ? null : analyzer.newHistory();
+        this.deletedFiles = this.dir == null ? null : analyzer.newHistory();
+    }
+
+    private static final class FileState {
+        private Mode mode;
+        // TAIL: bytes consumed so far, always just after a newline, and the CSV header line.
+        private long offset;
+        private byte[] header;
+        // WHOLE: size and modification time of the last successful read.
+        private long size = -1;
+        private FileTime modified;
+        // Everything folded from this file so far, or null before its first batch.
+        private LLMFlakyHistory contribution;
+    }
+
+    public boolean isEnabled() {
+        return dir != null;
+    }
+
+    @PostConstruct
+    void start() throws IOException {
+        if (!isEnabled()) {
+            return;
+        }
+        Files.createDirectories(dir);
+        watchService = dir.getFileSystem().newWatchService();
+        running = true;
+        Thread thread = new Thread(this::run, "llm-flaky-watcher");
+        thread.setDaemon(true);
+        thread.start();
+        LOGGER.info("Watching " + dir + " for flaky test results");
+    }
+
+    @PreDestroy
+    void stop() {
+        running = false;
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                LOGGER.warning("Failed to close the flaky watcher: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Runs {@code reader} against the live aggregates; ingestion waits until it returns.
+     */
+    public <T> T read(Function<LLMFlakyHistory, T> reader) {
+        if (!isEnabled()) {
+            throw new IllegalStateException("Flaky watcher is disabled; set llm.flaky.watch.dir");
+        }
+        historyLock.lock();
+        try {
+            return reader.apply(history);
+        } finally {
+            historyLock.unlock();
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", isEnabled());
+        if (isEnabled()) {
+            stats.put("dir", dir.toString());
+            stats.put("running", running);
+            stats.put("files", files.size());
+            read(live -> {
+                stats.put("runs", live.getRows());
+                stats.put("tests", live.size());
+                return null;
+            });
+            stats.put("batches", batches.get());
+            stats.put("failures", failures.get());
+            stats.put("lastIngestAt", lastIngestAt);
+        }
+        return stats;
+    }
+
+    private void run() {
+        try {
+            scan(dir);
+            while (running) {
+                WatchKey key = watchService.take();
+                Path watched = keys.get(key);
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW || watched == null) {
+                        // Events were lost; reading everything again only picks up what changed.
+                        scan(dir);
+                        continue;
+                    }
+                    Path path = watched.resolve((Path) event.context());
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                        forget(path);
+                    } else if (Files.isDirectory(path)) {
+                        if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                            scan(path);
+                        }
+                    } else {
+                        ingest(path);
+                    }
+                }
+                if (!key.reset()) {
+                    keys.remove(key);
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // Shutting down.
+        } catch (IOException | RuntimeException e) {
+            LOGGER.severe("Flaky watcher stopped: " + e.getMessage());
+        } finally {
+            running = false;
+        }
+    }
+
+    /**
+     * Drops the file at {@code path}, or every file under it when it was a directory. Their runs
+     * stay counted, as the runs of deleted files.
+     */
+    private void forget(Path path) {
+        files.entrySet().removeIf(entry -> {
+            if (!entry.getKey().startsWith(path)) {
+                return false;
+            }
+            if (entry.getValue().contribution != null) {
+                deletedFiles.merge(entry.getValue().contribution);
+            }
+            return true;
+        });
+    }
+
+    /**
+     * Registers {@code root} and its subdirectories, then reads the files under it. Directories
+     * are registered before their files are read, so appends made meanwhile still raise events.
+     */
+    private void scan(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes) throws IOException {
+                keys.put(directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE), directory);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                ingest(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                LOGGER.warning("Cannot read " + file + ": " + e.getMessage());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static String formatOf(Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        if (name.startsWith(".")) {
+            return null;
+        }
+        if (name.endsWith(".csv")) {
+            return "csv";
+        }
+        if (name.endsWith(".json") || name.endsWith(".ndjson") || name.endsWith(".jsonl")) {
+            return "json";
+        }
+        if (name.endsWith(".xml") || name.endsWith(".zip")) {
+            return "junit-xml";
+        }
+        return null;
+    }
+
+    private void ingest(Path file) {
+        String format = formatOf(file);
+        if (format == null || !Files.isRegularFile(file)) {
+            return;
+        }
+        FileState state = files.computeIfAbsent(file, path -> new FileState());
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (state.mode == null) {
+                state.mode = modeOf(channel, format);
+                if (state.mode == null) {
+                    return;
+                }
+            }
+            if (state.mode == Mode.TAIL) {
+                tail(file, channel, format, state);
+            } else {
+                readWhole(file, channel, format, state);
+            }
+        } catch (IOException e) {
+            failures.incrementAndGet();
+            LOGGER.warning("Cannot read " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * CSV is tailed and XML read whole. JSON is tailed when it is newline-delimited and read
+     * whole when it is an array; null while the file is still empty.
+     */
+    private static Mode modeOf(FileChannel channel, String format) throws IOException {
+        if (format.equals("csv")) {
+            return Mode.TAIL;
+        }
+        if (!format.equals("json")) {
+            return Mode.WHOLE;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE);
+        for (long position = 0; channel.read(buffer.clear(), position) > 0; position += buffer.position()) {
+            for (int i = 0; i < buffer.position(); i++) {
+                if (!Character.isWhitespace(buffer.get(i))) {
+                    return buffer.get(i) == '[' ? Mode.WHOLE : Mode.TAIL;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void tail(Path file, FileChannel channel, String format, FileState state) throws IOException {
+        long size = channel.size();
+        if (size < state.offset) {
+            LOGGER.info(file + " shrank; reading it again from the start");
+            state.offset = 0;
+            state.header = null;
+            if (state.contribution != null) {
+                state.contribution = null;
+                rebuild();
+            }
+        }
+        if (format.equals("csv") && state.header == null) {
+            long headerEnd = lineEnd(channel, 0, size);
+            if (headerEnd < 0) {
+                return;
+            }
+            ByteBuffer header = ByteBuffer.allocate((int) headerEnd);
+            channel.read(header, 0);
+            state.header = header.array();
+            state.offset = headerEnd;
+        }
+        long end = lastLineEnd(channel, state.offset, size);
+        if (end <= state.offset) {
+            return;
+        }
+        LLMFlakyHistory batch = analyzer.newHistory();
+        try {
+            analyzer.read(withHeader(state, new RegionInputStream(channel, state.offset, end)), format, batch::add);
+        } catch (IOException | RuntimeException e) {
+            // A malformed line would stop the tail for good if it were retried; read the range
+            // again line by line and skip only the lines that fail.
+            batch = analyzer.newHistory();
+            long skipped = readLines(channel, format, state, end, batch);
+            failures.addAndGet(skipped);
+            LOGGER.warning("Skipped " + skipped + " malformed lines between bytes " + state.offset + ".." + end
+                    + " of " + file + ": " + e.getMessage());
+        }
+        state.offset = end;
+        fold(state, batch, false);
+    }
+
+    /**
+     * Parses the complete lines in {@code [state.offset, end)} one at a time into {@code batch}
+     * and returns how many failed. A CSV record whose quoted field spans lines fails here too.
+     */
+    private long readLines(FileChannel channel, String format, FileState state, long end, LLMFlakyHistory batch)
+            throws IOException {
+        long skipped = 0;
+        for (long from = state.offset; from < end; ) {
+            long to = lineEnd(channel, from, end);
+            try {
+                analyzer.read(withHeader(state, new RegionInputStream(channel, from, to)), format, batch::add);
+            } catch (IOException | RuntimeException e) {
+                skipped++;
+            }
+            from = to;
+        }
+        return skipped;
+    }
+
+    private static InputStream withHeader(FileState state, InputStream lines) {
+        return state.header == null ? lines : new SequenceInputStream(new ByteArrayInputStream(state.header), lines);
+    }
+
+    private void readWhole(Path file, FileChannel channel, String format, FileState state) throws IOException {
+        long size = channel.size();
+        FileTime modified = Files.getLastModifiedTime(file);
+        if (size == 0 || (size == state.size && modified.equals(state.modified))) {
+            return;
+        }
+        LLMFlakyHistory batch = analyzer.newHistory();
+        try {
+            analyzer.read(new RegionInputStream(channel, 0, size), format, batch::add);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.fine("Cannot parse " + file + " yet, retrying on its next change: " + e.getMessage());
+            return;
+        }
+        state.size = size;
+        state.modified = modified;
+        fold(state, batch, state.contribution != null);
+    }
+
+    /**
+     * Adds {@code batch} to what {@code state}'s file contributes, or with {@code replace}
+     * makes it the file's whole contribution, and brings the live history in line.
+     */
+    private void fold(FileState state, LLMFlakyHistory batch, boolean replace) {
+        if (replace) {
+            state.contribution = batch;
+            rebuild();
+        } else {
+            if (batch.getRows() == 0) {
+                return;
+            }
+            historyLock.lock();
+            try {
+                history.mergeCopy(batch);
+            } finally {
+                historyLock.unlock();
+            }
+            if (state.contribution == null) {
+                state.contribution = batch;
+            } else {
+                state.contribution.merge(batch);
+            }
+        }
+        batches.incrementAndGet();
+        lastIngestAt = LocalDateTime.now();
+    }
+
+    private void rebuild() {
+        LLMFlakyHistory rebuilt = analyzer.newHistory();
+        rebuilt.mergeCopy(deletedFiles);
+        for (FileState state : files.values()) {
+            if (state.contribution != null) {
+                rebuilt.mergeCopy(state.contribution);
+            }
+        }
+        historyLock.lock();
+        try {
+            history = rebuilt;
+        } finally {
+            historyLock.unlock();
+        }
+    }
+
+    /**
+     * Position just after the first newline at or after {@code from}, or -1 if there is none.
+     */
+    private static long lineEnd(FileChannel channel, long from, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE);
+        for (long position = from; position < size; position += buffer.position()) {
+            if (channel.read(buffer.clear(), position) <= 0) {
+                break;
+            }
+            for (int i = 0; i < buffer.position(); i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Position just after the last newline in {@code [from, size)}, or -1 if there is none.
+     */
+    private static long lastLineEnd(FileChannel channel, long from, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE);
+        for (long end = size; end > from; end -= buffer.limit()) {
+            long start = Math.max(from, end - BLOCK_SIZE);
+            buffer.clear().limit((int) (end - start));
+            while (buffer.hasRemaining() && channel.read(buffer, start + buffer.position()) > 0) {
+                // Fill the block.
+            }
+            for (int i = buffer.position() - 1; i >= 0; i--) {
+                if (buffer.get(i) == '\n') {
+                    return start + i + 1;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reads {@code [start, end)} of a channel with positional reads; closing it leaves the
+     * channel open.
+     */
+    private static final class RegionInputStream extends InputStream {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE).flip();
+        private final long end;
+        private long position;
+
+        private RegionInputStream(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.position = start;
+            this.end = end;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return fill() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int count = Math.min(len, buffer.remaining());
+            buffer.get(bytes, off, count);
+            return count;
+        }
+
+        private boolean fill() throws IOException {
+            if (buffer.hasRemaining()) {
+                return true;
+            }
+            if (position >= end) {
+                return false;
+            }
+            buffer.clear().limit((int) Math.min(BLOCK_SIZE, end - position));
+            int read = channel.read(buffer, position);
+            buffer.flip();
+            if (read <= 0) {
+                return false;
+            }
+            position += read;
+            return true;
+        }
+    }
+}
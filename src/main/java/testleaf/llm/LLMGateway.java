@@ -0,0 +1,474 @@
+package testleaf.llm;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * Single entry point for every LLM call. Keeps one HTTP/2, keep-alive client per
+ * (endpoint URL, API key) so repeated calls reuse the TLS session and warm connections
+ * instead of opening a fresh one each time. Clients are never dropped, since an
+ * {@link HttpClient} cannot be closed before Java 21; instead there are at most
+ * {@code llm.gateway.max-clients}, and pairs beyond that share one more client. Idle
+ * connections are closed by the clients themselves. Every call that reaches the wire is admitted
+ * by the {@link LLMScheduler}, which also retries rate-limited responses, and sent to the
+ * endpoint the {@link LLMRouter} ranks fastest, optionally hedged against the runner-up,
+ * with {@code max_tokens} sized by the {@link LLMTokenBudget}.
+ */
+@Service
+public class LLMGateway {
+
+    private static final Logger LOGGER = Logger.getLogger(LLMGateway.class.getName());
+
+    private final ObjectMapper mapper = LLMJson.MAPPER;
+    private final Map<ClientKey, HttpClient> clients = new ConcurrentHashMap<>();
+    private final LLMResponseCache responseCache;
+    private final LLMInFlightRegistry inFlight;
+    private final LLMScheduler scheduler;
+    private final LLMRouter router;
+    private final LLMTokenBudget tokenBudget;
+
+    private final Duration connectTimeout;
+    private final Duration readTimeout;
+    private final int maxClients;
+    private HttpClient overflowClient;
+
+    public LLMGateway(LLMResponseCache responseCache,
+                      LLMInFlightRegistry inFlight,
+                      LLMScheduler scheduler,
+                      LLMRouter router,
+                      LLMTokenBudget tokenBudget,
+                      @Value("${llm.gateway.pool-size:20}") int poolSize,
+                      @Value("${llm.gateway.idle-eviction-seconds:300}") long idleEvictionSeconds,
+                      @Value("${llm.gateway.max-clients:32}") int maxClients,
+                      @Value("${llm.gateway.connect-timeout-ms:10000}") long connectTimeoutMs,
+                      @Value("${llm.gateway.read-timeout-ms:120000}") long readTimeoutMs) {
+        this.responseCache = responseCache;
+        this.inFlight = inFlight;
+        this.scheduler = scheduler;
+        this.router = router;
+        this.tokenBudget = tokenBudget;
+        this.connectTimeout = Duration.ofMillis(connectTimeoutMs);
+        this.readTimeout = Duration.ofMillis(readTimeoutMs);
+        this.maxClients = maxClients;
+
+        // The JDK client reads its pool settings once, when the first client is created.
+        setIfAbsent("jdk.httpclient.connectionPoolSize", String.valueOf(poolSize));
+        setIfAbsent("jdk.httpclient.keepalive.timeout", String.valueOf(idleEvictionSeconds));
+    }
+
+    /**
+     * Sends the chat request and returns the raw response body, whatever the HTTP status,
+     * so callers can keep inspecting {@code choices} / {@code error} themselves. Successful
+     * completions are served from and stored in the {@link LLMResponseCache}. The one
+     * exception is rate limiting that outlasts the scheduler's retries, which fails with
+     * {@link LLMRateLimitedException}.
+     */
+    public String complete(LLMChatRequest chatRequest) throws IOException, InterruptedException {
+        return await(completeAsync(chatRequest));
+    }
+
+    /**
+     * Non-blocking form of {@link #complete}: the request goes out through
+     * {@link HttpClient#sendAsync}, so no thread is parked while the provider generates.
+     * Identical requests already on the wire are joined rather than sent again.
+     */
+    public CompletableFuture<String> completeAsync(LLMChatRequest chatRequest) {
+        String requestKey = responseCache.keyFor(chatRequest);
+        if (responseCache.isEnabled() && !chatRequest.isNoCache()) {
+            String cached = cached(router.candidates(chatRequest));
+            if (cached != null) {
+                return CompletableFuture.completedFuture(cached);
+            }
+        }
+        return inFlight.join("raw:" + flightKey(chatRequest, requestKey), () -> send(chatRequest));
+    }
+
+    /**
+     * Like {@link #completeAsync(LLMChatRequest)}, but coalesces on the parsed result as well:
+     * concurrent identical requests share one upstream call and one {@code parser} run.
+     * {@code resultType} names the parse so different parsers of the same prompt stay apart.
+     */
+    public <T> CompletableFuture<T> completeAsync(LLMChatRequest chatRequest, String resultType, Function<String, T> parser) {
+        String flightKey = resultType + ":" + flightKey(chatRequest, responseCache.keyFor(chatRequest));
+        return inFlight.join(flightKey, () -> mapCancellable(completeAsync(chatRequest), parser));
+    }
+
+    private CompletableFuture<String> send(LLMChatRequest chatRequest) {
+        List<LLMChatRequest> candidates = router.candidates(chatRequest);
+        HedgedCall hedgedCall = router.isHedgingEnabled() && candidates.size() > 1
+                ? new HedgedCall(candidates.get(0), candidates.get(1))
+                : null;
+        CompletableFuture<HttpResponse<String>> exchange = hedgedCall != null ? hedgedCall.start() : attempt(candidates.get(0));
+        return mapCancellable(exchange, response -> {
+            if (response.statusCode() == 429) {
+                throw new LLMRateLimitedException("LLM provider " + response.uri()
+                        + " is still rate limiting after retries: " + errorMessage(response.body()),
+                        LLMScheduler.retryAfterSeconds(response).orElse(60L));
+            }
+            if (responseCache.isEnabled() && response.statusCode() / 100 == 2 && response.body().contains("\"choices\"")) {
+                LLMChatRequest answered = hedgedCall != null ? hedgedCall.winner() : candidates.get(0);
+                responseCache.put(responseCache.keyFor(answered), response.body());
+            }
+            return response.body();
+        });
+    }
+
+    // One scheduled exchange with one endpoint; its outcome feeds the router's latency and health stats.
+    private CompletableFuture<HttpResponse<String>> attempt(LLMChatRequest target) {
+        int estimatedPrompt = target.estimatedPromptTokens();
+        int promptTokens = tokenBudget.calibratedPromptTokens(target, estimatedPrompt);
+        int maxTokens = tokenBudget.maxTokensFor(target, promptTokens);
+        HttpRequest request = buildHttpRequest(target, false, maxTokens);
+
+        HttpClient client = clientFor(target.getApiUrl(), target.getApiKey());
+        long started = System.nanoTime();
+        CompletableFuture<HttpResponse<String>> exchange = scheduler.submit(target.getApiUrl(),
+                promptTokens + maxTokens, true, () -> client.sendAsync(request, HttpResponse.BodyHandlers.ofString()));
+        exchange.whenComplete((response, error) -> {
+            recordOutcome(target, started, error == null ? response.statusCode() : -1, exchange.isCancelled());
+            if (error == null && response.statusCode() / 100 == 2) {
+                recordUsage(target, estimatedPrompt, response.body());
+            }
+        });
+        return exchange;
+    }
+
+    private void recordUsage(LLMChatRequest target, int estimatedPrompt, String body) {
+        try {
+            LLMCompletion completion = LLMCompletion.parse(body);
+            int completionTokens = completion.getCompletionTokens() >= 0 || completion.getContent() == null
+                    ? completion.getCompletionTokens()
+                    : LLMTokenEstimator.estimate(completion.getContent());
+            tokenBudget.record(target, estimatedPrompt, completion.getPromptTokens(), completionTokens,
+                    "length".equals(completion.getFinishReason()));
+        } catch (RuntimeException e) {
+            LOGGER.fine("Could not read token usage from LLM response: " + e.getMessage());
+        }
+    }
+
+    private void recordOutcome(LLMChatRequest target, long startedNanos, int status, boolean cancelled) {
+        if (cancelled) {
+            return; // A losing hedge or an abandoned call says nothing about the endpoint.
+        }
+        if (status / 100 == 2) {
+            router.recordSuccess(target, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedNanos));
+        } else if (status < 0 || status == 429 || status >= 500) {
+            router.recordFailure(target);
+        }
+    }
+
+    private String errorMessage(String body) {
+        try {
+            String message = LLMCompletion.parse(body).getErrorMessage();
+            return message == null || message.isEmpty() ? body : message;
+        } catch (UncheckedIOException e) {
+            return body;
+        }
+    }
+
+    // thenApply whose cancellation reaches back to the source, so abandoning a call aborts the exchange.
+    private static <S, T> CompletableFuture<T> mapCancellable(CompletableFuture<S> source, Function<S, T> mapper) {
+        CompletableFuture<T> mapped = source.thenApply(mapper);
+        mapped.whenComplete((value, error) -> {
+            if (mapped.isCancelled()) {
+                source.cancel(true);
+            }
+        });
+        return mapped;
+    }
+
+    /**
+     * A cached answer to the prompt from any of {@code candidates}, best first. Answers are cached
+     * under the endpoint and model that gave them, which is not always the one requested.
+     */
+    private String cached(List<LLMChatRequest> candidates) {
+        List<String> keys = new ArrayList<>(candidates.size());
+        for (LLMChatRequest candidate : candidates) {
+            keys.add(responseCache.keyFor(candidate));
+        }
+        return responseCache.get(keys);
+    }
+
+    // Requests to different endpoints never share a flight, even with identical payloads.
+    private static String flightKey(LLMChatRequest chatRequest, String requestKey) {
+        return chatRequest.getApiUrl() + "|" + requestKey;
+    }
+
+    /**
+     * Sends the chat request with {@code stream: true} and hands every content delta to
+     * {@code onDelta} as it arrives. The returned future completes with the assembled
+     * message content, i.e. what {@code choices[0].message.content} would have held.
+     * Nothing blocks while waiting: lines are pushed from the HTTP client's own executor.
+     */
+    public CompletableFuture<String> stream(LLMChatRequest chatRequest, Consumer<String> onDelta) {
+        List<LLMChatRequest> candidates = router.candidates(chatRequest);
+        if (responseCache.isEnabled() && !chatRequest.isNoCache()) {
+            String cached = cached(candidates);
+            if (cached != null) {
+                try {
+                    String content = LLMCompletion.parse(cached).requireContent();
+                    onDelta.accept(content);
+                    return CompletableFuture.completedFuture(content);
+                } catch (Exception e) {
+                    return CompletableFuture.failedFuture(e);
+                }
+            }
+        }
+
+        // Streams are routed but never hedged: two providers would interleave their deltas.
+        LLMChatRequest target = candidates.get(0);
+        int estimatedPrompt = target.estimatedPromptTokens();
+        int promptTokens = tokenBudget.calibratedPromptTokens(target, estimatedPrompt);
+        int maxTokens = tokenBudget.maxTokensFor(target, promptTokens);
+        HttpRequest request = buildHttpRequest(target, true, maxTokens);
+
+        // Deltas may already have reached the caller, so a rate-limited stream fails instead of retrying.
+        CompletableFuture<String> content = new CompletableFuture<>();
+        HttpClient client = clientFor(target.getApiUrl(), target.getApiKey());
+        long started = System.nanoTime();
+        CompletableFuture<HttpResponse<Void>> exchange = scheduler.submit(target.getApiUrl(),
+                promptTokens + maxTokens, false, () -> client.sendAsync(request, info -> HttpResponse.BodySubscribers.fromLineSubscriber(
+                        new LLMStreamSubscriber(info.statusCode(), onDelta, content))));
+        exchange.whenComplete((response, error) -> {
+            if (error != null) {
+                content.completeExceptionally(unwrap(error));
+            }
+        });
+        content.whenComplete((text, error) -> {
+            if (content.isCancelled()) {
+                exchange.cancel(true);
+            }
+            recordOutcome(target, started, error == null ? 200 : -1, content.isCancelled());
+            if (error == null) {
+                // Streams carry no usage block; count the assembled answer locally.
+                tokenBudget.record(target, estimatedPrompt, -1, LLMTokenEstimator.estimate(text), false);
+            }
+        });
+
+        if (responseCache.isEnabled()) {
+            String key = responseCache.keyFor(target);
+            content.thenAccept(text -> responseCache.put(key, asCompletionBody(text)));
+        }
+        return content;
+    }
+
+    // The body goes out fragment by fragment; the declared length avoids chunked encoding.
+    private HttpRequest buildHttpRequest(LLMChatRequest chatRequest, boolean stream, int maxTokens) {
+        List<byte[]> body = chatRequest.toJsonBody(stream, maxTokens);
+        long contentLength = 0;
+        for (byte[] fragment : body) {
+            contentLength += fragment.length;
+        }
+        return HttpRequest.newBuilder()
+                .uri(URI.create(chatRequest.getApiUrl()))
+                .timeout(readTimeout)
+                .header("Authorization", "Bearer " + chatRequest.getApiKey())
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.fromPublisher(HttpRequest.BodyPublishers.ofByteArrays(body), contentLength))
+                .build();
+    }
+
+    // Wraps streamed content in the non-streaming response shape so both paths share cache entries.
+    private String asCompletionBody(String content) {
+        Map<String, Object> message = Map.of("role", "assistant", "content", content);
+        Map<String, Object> body = Map.of("choices", List.of(Map.of("index", 0, "message", message)));
+        try {
+            return mapper.writeValueAsString(body);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Waits for an async LLM result, rethrowing the original failure rather than an
+     * {@link ExecutionException} wrapper so blocking callers see the same errors as before.
+     */
+    public static <T> T await(CompletableFuture<T> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Strips the {@link CompletionException} wrapper async stages put around a failure.
+     */
+    public static Throwable unwrap(Throwable error) {
+        if ((error instanceof CompletionException || error instanceof ExecutionException) && error.getCause() != null) {
+            return error.getCause();
+        }
+        return error;
+    }
+
+    HttpClient clientFor(String apiUrl, String apiKey) {
+        ClientKey key = new ClientKey(apiUrl, apiKey);
+        HttpClient client = clients.get(key);
+        if (client != null) {
+            return client;
+        }
+        synchronized (clients) {
+            client = clients.get(key);
+            if (client != null) {
+                return client;
+            }
+            if (clients.size() < maxClients) {
+                client = newClient();
+                clients.put(key, client);
+                return client;
+            }
+            if (overflowClient == null) {
+                LOGGER.warning("More than " + maxClients + " LLM endpoint/key pairs in use; the rest share one client");
+                overflowClient = newClient();
+            }
+            return overflowClient;
+        }
+    }
+
+    private HttpClient newClient() {
+        return HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(connectTimeout)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+    }
+
+    private static void setIfAbsent(String property, String value) {
+        if (System.getProperty(property) == null) {
+            System.setProperty(property, value);
+        }
+    }
+
+    /**
+     * Races {@code primary} against a hedged duplicate on {@code backup}. The duplicate goes out
+     * once the primary has taken longer than its endpoint's p95, or straight away if the primary
+     * fails first. The first 2xx wins and the other exchange is cancelled; if neither succeeds
+     * the last response (or error) is passed on.
+     */
+    private final class HedgedCall {
+        private final LLMChatRequest primary;
+        private final LLMChatRequest backup;
+        private final CompletableFuture<HttpResponse<String>> result = new CompletableFuture<>();
+        private final List<CompletableFuture<HttpResponse<String>>> attempts = new ArrayList<>();
+        private CompletableFuture<HttpResponse<String>> hedgeAttempt;
+        private boolean hedged;
+        private int pending;
+        private HttpResponse<String> lastResponse;
+        private Throwable lastError;
+        private LLMChatRequest winner;
+
+        private HedgedCall(LLMChatRequest primary, LLMChatRequest backup) {
+            this.primary = primary;
+            this.backup = backup;
+        }
+
+        private CompletableFuture<HttpResponse<String>> start() {
+            result.whenComplete((response, error) -> {
+                if (result.isCancelled()) {
+                    cancelAttemptsExcept(null);
+                }
+            });
+            launch(primary);
+            CompletableFuture.runAsync(this::hedge,
+                    CompletableFuture.delayedExecutor(router.hedgeDelayMillis(primary), TimeUnit.MILLISECONDS));
+            return result;
+        }
+
+        private synchronized void hedge() {
+            if (hedged || result.isDone()) {
+                return;
+            }
+            hedged = true;
+            hedgeAttempt = launch(backup);
+        }
+
+        private synchronized CompletableFuture<HttpResponse<String>> launch(LLMChatRequest target) {
+            CompletableFuture<HttpResponse<String>> exchange = attempt(target);
+            attempts.add(exchange);
+            pending++;
+            exchange.whenComplete((response, error) -> settle(target, exchange, response, error));
+            return exchange;
+        }
+
+        /**
+         * The target whose successful response completed the call; null until then.
+         */
+        private synchronized LLMChatRequest winner() {
+            return winner;
+        }
+
+        private void settle(LLMChatRequest target, CompletableFuture<HttpResponse<String>> exchange,
+                            HttpResponse<String> response, Throwable error) {
+            synchronized (this) {
+                pending--;
+                if (result.isDone()) {
+                    return;
+                }
+                if (error == null && response.statusCode() / 100 == 2) {
+                    if (hedged) {
+                        router.recordHedge(exchange == hedgeAttempt);
+                    }
+                    winner = target;
+                    result.complete(response);
+                } else {
+                    lastResponse = error == null ? response : lastResponse;
+                    lastError = error == null ? lastError : unwrap(error);
+                    if (!hedged) {
+                        hedge();
+                        return;
+                    }
+                    if (pending > 0) {
+                        return;
+                    }
+                    router.recordHedge(false);
+                    if (lastResponse != null) {
+                        result.complete(lastResponse);
+                    } else {
+                        result.completeExceptionally(lastError);
+                    }
+                    return;
+                }
+            }
+            cancelAttemptsExcept(exchange);
+        }
+
+        private void cancelAttemptsExcept(CompletableFuture<HttpResponse<String>> keep) {
+            List<CompletableFuture<HttpResponse<String>>> toCancel;
+            synchronized (this) {
+                toCancel = new ArrayList<>(attempts);
+            }
+            for (CompletableFuture<HttpResponse<String>> attempt : toCancel) {
+                if (attempt != keep) {
+                    attempt.cancel(true);
+                }
+            }
+        }
+    }
+
+    private record ClientKey(String apiUrl, String apiKey) {
+    }
+}
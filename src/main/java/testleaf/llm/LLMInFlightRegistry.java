@@ -0,0 +1,129 @@
+package testleaf.llm;
+
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Single-flight registry: concurrent callers asking for the same key share one upstream
+ * future instead of each starting their own LLM call. Every caller gets its own handle, so
+ * cancelling one waiter never affects the others; the upstream call is only cancelled once
+ * every waiter has given up. Failures reach all waiters.
+ */
+@Component
+public class LLMInFlightRegistry {
+
+    private final Map<String, Flight<?>> flights = new ConcurrentHashMap<>();
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> join(String key, Supplier<CompletableFuture<T>> upstream) {
+        while (true) {
+            Flight<T> flight = (Flight<T>) flights.get(key);
+            if (flight == null) {
+                Flight<T> created = new Flight<>(key);
+                if (flights.putIfAbsent(key, created) == null) {
+                    CompletableFuture<T> waiter = created.addWaiter();
+                    started.incrementAndGet();
+                    created.start(upstream);
+                    return waiter;
+                }
+                continue;
+            }
+
+            CompletableFuture<T> waiter = flight.addWaiter();
+            if (waiter != null) {
+                coalesced.incrementAndGet();
+                return waiter;
+            }
+            // The flight was abandoned between lookup and join; retire it and start a fresh one.
+            flights.remove(key, flight);
+        }
+    }
+
+    public Map<String, Long> stats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("inFlight", (long) flights.size());
+        stats.put("started", started.get());
+        stats.put("coalesced", coalesced.get());
+        return stats;
+    }
+
+    private final class Flight<T> {
+        private final String key;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private CompletableFuture<T> source;
+        private int waiters;
+        private boolean abandoned;
+
+        private Flight(String key) {
+            this.key = key;
+        }
+
+        private void start(Supplier<CompletableFuture<T>> upstream) {
+            CompletableFuture<T> call;
+            try {
+                call = upstream.get();
+            } catch (RuntimeException e) {
+                call = CompletableFuture.failedFuture(e);
+            }
+            synchronized (this) {
+                source = call;
+                if (abandoned) {
+                    call.cancel(true);
+                }
+            }
+            call.whenComplete((value, error) -> {
+                flights.remove(key, this);
+                if (error != null) {
+                    result.completeExceptionally(LLMGateway.unwrap(error));
+                } else {
+                    result.complete(value);
+                }
+            });
+        }
+
+        private synchronized CompletableFuture<T> addWaiter() {
+            if (abandoned) {
+                return null;
+            }
+            waiters++;
+            CompletableFuture<T> waiter = new CompletableFuture<>();
+            result.whenComplete((value, error) -> {
+                if (error != null) {
+                    waiter.completeExceptionally(error);
+                } else {
+                    waiter.complete(value);
+                }
+            });
+            waiter.whenComplete((value, error) -> {
+                if (waiter.isCancelled()) {
+                    waiterCancelled();
+                }
+            });
+            return waiter;
+        }
+
+        private void waiterCancelled() {
+            CompletableFuture<T> toCancel;
+            synchronized (this) {
+                if (--waiters > 0 || result.isDone()) {
+                    return;
+                }
+                abandoned = true;
+                toCancel = source;
+            }
+            flights.remove(key, this);
+            if (toCancel != null) {
+                toCancel.cancel(true);
+            }
+            result.cancel(true);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package testleaf.llm;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * The one Jackson mapper the LLM code shares. {@link ObjectMapper} and its {@link JsonFactory}
+ * are thread-safe once configured, so there is no reason to build a new one per call.
+ */
+public final class LLMJson {
+
+    public static final ObjectMapper MAPPER = new ObjectMapper();
+    public static final JsonFactory FACTORY = MAPPER.getFactory();
+
+    private LLMJson() {
+    }
+}
@@ -0,0 +1,428 @@
+package testleaf.llm;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * Parses a large local CSV history on all cores, straight from a memory-mapped file. The file
+ * is cut into chunks of about {@code chunkBytes}, each chunk is tokenized at the byte level on
+ * the common fork/join pool into a partial {@link LLMFlakyHistory}, and the partials are merged
+ * in file order.
+ * <p>
+ * Chunk boundaries move forward to the next record start. A newline only ends a record outside
+ * quotes, so a first parallel pass counts the quotes of every chunk; the parity of the counts
+ * before a boundary tells whether it falls inside a quoted field. This needs quotes to appear
+ * only as RFC 4180 allows, around a field or doubled inside one; a stray quote in an unquoted
+ * field, which the upload path reads literally, throws the boundaries off.
+ * <p>
+ * Fields are read in place from the mapped buffer: durations and timestamps are parsed from the
+ * bytes, and repeated test names, statuses and error messages resolve to one shared String per
+ * chunk instead of a new one per row. The columns and their handling match the upload path:
+ * header names are case-insensitive and values are trimmed.
+ */
+final class LLMMappedCsvReader {
+
+    private static final byte QUOTE = '"';
+    private static final byte COMMA = ',';
+    private static final byte LF = '\n';
+    private static final byte CR = '\r';
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    // Chunks stay well below the 2 GB limit of a single mapping.
+    private static final long MAX_CHUNK_BYTES = 1L << 30;
+
+    private static final int TEST_NAME = 0;
+    private static final int STATUS = 1;
+    private static final int DURATION = 2;
+    private static final int ERROR_MESSAGE = 3;
+    private static final int TIMESTAMP = 4;
+    private static final String[] COLUMNS = {"testname", "status", "duration", "errormessage", "timestamp"};
+
+    private final FileChannel channel;
+    private final long size;
+    private final long chunkBytes;
+
+    private LLMMappedCsvReader(FileChannel channel, long chunkBytes) throws IOException {
+        this.channel = channel;
+        this.size = channel.size();
+        this.chunkBytes = Math.max(1, Math.min(chunkBytes, MAX_CHUNK_BYTES));
+    }
+
+    static LLMFlakyHistory read(Path file, long chunkBytes, Supplier<LLMFlakyHistory> histories) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new LLMMappedCsvReader(channel, chunkBytes).read(histories);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private LLMFlakyHistory read(Supplier<LLMFlakyHistory> histories) throws IOException {
+        long headerEnd = recordEnd(0, false);
+        int[] slots = header(headerEnd);
+        int chunks = (int) Math.max(1, (size - headerEnd + chunkBytes - 1) / chunkBytes);
+
+        long[] quotes = IntStream.range(0, chunks).parallel()
+                .mapToLong(i -> countQuotes(headerEnd + i * chunkBytes, Math.min(size, headerEnd + (i + 1) * chunkBytes)))
+                .toArray();
+        long[] starts = new long[chunks + 1];
+        starts[0] = headerEnd;
+        starts[chunks] = size;
+        long quotesBefore = 0;
+        for (int i = 1; i < chunks; i++) {
+            quotesBefore += quotes[i - 1];
+            starts[i] = Math.max(starts[i - 1], recordEnd(headerEnd + i * chunkBytes, (quotesBefore & 1) == 1));
+        }
+
+        return IntStream.range(0, chunks).parallel()
+                .mapToObj(i -> parse(starts[i], starts[i + 1], slots, histories.get()))
+                .reduce((earlier, later) -> {
+                    earlier.merge(later);
+                    return earlier;
+                })
+                .orElseGet(histories);
+    }
+
+    private ByteBuffer map(long from, long to) {
+        try {
+            return channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private long countQuotes(long from, long to) {
+        ByteBuffer buffer = map(from, to);
+        long count = 0;
+        for (int i = 0, limit = buffer.limit(); i < limit; i++) {
+            if (buffer.get(i) == QUOTE) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Position just after the first newline at or after {@code from} that is outside quotes, or
+     * the end of the file.
+     */
+    private long recordEnd(long from, boolean inQuotes) {
+        for (long window = from; window < size; window += chunkBytes) {
+            ByteBuffer buffer = map(window, Math.min(size, window + chunkBytes));
+            for (int i = 0, limit = buffer.limit(); i < limit; i++) {
+                byte b = buffer.get(i);
+                if (b == QUOTE) {
+                    inQuotes = !inQuotes;
+                } else if (b == LF && !inQuotes) {
+                    return window + i + 1;
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * For each column of the header, the field it holds, or -1 for columns that are not used.
+     */
+    private int[] header(long headerEnd) {
+        Record header = new Record(map(0, headerEnd), 64);
+        header.next();
+        int[] slots = new int[header.fields];
+        boolean[] found = new boolean[COLUMNS.length];
+        for (int column = 0; column < header.fields; column++) {
+            String name = header.text(column).toLowerCase(Locale.ROOT);
+            slots[column] = -1;
+            for (int field = 0; field < COLUMNS.length; field++) {
+                if (COLUMNS[field].equals(name) && !found[field]) {
+                    slots[column] = field;
+                    found[field] = true;
+                }
+            }
+        }
+        for (int field = 0; field < COLUMNS.length; field++) {
+            if (!found[field]) {
+                throw new IllegalArgumentException("Mapping for " + COLUMNS[field] + " not found in CSV header");
+            }
+        }
+        return slots;
+    }
+
+    private LLMFlakyHistory parse(long from, long to, int[] slots, LLMFlakyHistory history) {
+        if (from >= to) {
+            return history;
+        }
+        Record record = new Record(map(from, to), slots.length);
+        Interner testNames = new Interner(1 << 16);
+        Interner statuses = new Interner(64);
+        Interner errors = new Interner(4096);
+        int[] columnOf = new int[COLUMNS.length];
+        for (int column = 0; column < slots.length; column++) {
+            if (slots[column] >= 0) {
+                columnOf[slots[column]] = column;
+            }
+        }
+        while (record.next()) {
+            if (record.isBlank()) {
+                continue;
+            }
+            if (record.fields < slots.length) {
+                throw new IllegalArgumentException("CSV record at byte " + (from + record.start) + " has "
+                        + record.fields + " values, expected " + slots.length);
+            }
+            history.add(record.interned(columnOf[TEST_NAME], testNames),
+                    record.interned(columnOf[STATUS], statuses),
+                    record.longValue(columnOf[DURATION]),
+                    record.interned(columnOf[ERROR_MESSAGE], errors),
+                    record.timestamp(columnOf[TIMESTAMP]));
+        }
+        return history;
+    }
+
+    /**
+     * Cursor over the records of a mapped buffer; field bounds are offsets into the buffer.
+     */
+    private static final class Record {
+        private final ByteBuffer buffer;
+        private final int[] fieldStart;
+        private final int[] fieldEnd;
+        private final boolean[] escaped;
+        private int position;
+        private int start;
+        private int fields;
+
+        private Record(ByteBuffer buffer, int maxFields) {
+            this.buffer = buffer;
+            this.fieldStart = new int[maxFields];
+            this.fieldEnd = new int[maxFields];
+            this.escaped = new boolean[maxFields];
+        }
+
+        private boolean next() {
+            int limit = buffer.limit();
+            if (position >= limit) {
+                return false;
+            }
+            start = position;
+            fields = 0;
+            while (true) {
+                int s = skipBlanks(position, limit);
+                int e;
+                boolean hasEscapes = false;
+                if (s < limit && buffer.get(s) == QUOTE) {
+                    s++;
+                    e = s;
+                    while (e < limit) {
+                        if (buffer.get(e) == QUOTE) {
+                            if (e + 1 < limit && buffer.get(e + 1) == QUOTE) {
+                                hasEscapes = true;
+                                e += 2;
+                                continue;
+                            }
+                            break;
+                        }
+                        e++;
+                    }
+                    position = Math.min(limit, e + 1);
+                    while (position < limit && buffer.get(position) != COMMA && buffer.get(position) != LF) {
+                        position++;
+                    }
+                } else {
+                    position = s;
+                    while (position < limit && buffer.get(position) != COMMA && buffer.get(position) != LF) {
+                        position++;
+                    }
+                    e = position;
+                    while (e > s && isBlank(buffer.get(e - 1))) {
+                        e--;
+                    }
+                }
+                if (fields < fieldStart.length) {
+                    fieldStart[fields] = s;
+                    fieldEnd[fields] = e;
+                    escaped[fields] = hasEscapes;
+                }
+                fields++;
+                if (position < limit && buffer.get(position) == COMMA) {
+                    position++;
+                    continue;
+                }
+                position++;
+                return true;
+            }
+        }
+
+        private int skipBlanks(int from, int limit) {
+            while (from < limit && buffer.get(from) != LF && isBlank(buffer.get(from))) {
+                from++;
+            }
+            return from;
+        }
+
+        private static boolean isBlank(byte b) {
+            return b == ' ' || b == '\t' || b == CR;
+        }
+
+        private boolean isBlank() {
+            return fields == 1 && fieldStart[0] == fieldEnd[0];
+        }
+
+        private String text(int field) {
+            int length = fieldEnd[field] - fieldStart[field];
+            byte[] bytes = new byte[length];
+            buffer.get(fieldStart[field], bytes);
+            String text = new String(bytes, StandardCharsets.UTF_8);
+            return escaped[field] ? text.replace("\"\"", "\"") : text;
+        }
+
+        private String interned(int field, Interner interner) {
+            return escaped[field] ? text(field) : interner.get(this, field);
+        }
+
+        private long longValue(int field) {
+            int s = fieldStart[field];
+            int e = fieldEnd[field];
+            boolean negative = s < e && buffer.get(s) == '-';
+            int i = negative ? s + 1 : s;
+            if (i == e || e - i > 18) {
+                return Long.parseLong(text(field));
+            }
+            long value = 0;
+            for (; i < e; i++) {
+                int digit = buffer.get(i) - '0';
+                if (digit < 0 || digit > 9) {
+                    return Long.parseLong(text(field));
+                }
+                value = value * 10 + digit;
+            }
+            return negative ? -value : value;
+        }
+
+        /**
+         * {@code yyyy-MM-dd HH:mm:ss} read from the digits directly; anything else goes through
+         * the formatter, which reports what is wrong with it.
+         */
+        private LocalDateTime timestamp(int field) {
+            int s = fieldStart[field];
+            if (fieldEnd[field] - s == 19 && buffer.get(s + 4) == '-' && buffer.get(s + 7) == '-'
+                    && buffer.get(s + 10) == ' ' && buffer.get(s + 13) == ':' && buffer.get(s + 16) == ':') {
+                int year = digits(s, 4);
+                int month = digits(s + 5, 2);
+                int day = digits(s + 8, 2);
+                int hour = digits(s + 11, 2);
+                int minute = digits(s + 14, 2);
+                int second = digits(s + 17, 2);
+                if ((year | month | day | hour | minute | second) >= 0) {
+                    return LocalDateTime.of(year, month, day, hour, minute, second);
+                }
+            }
+            return LocalDateTime.parse(text(field), TIMESTAMP_FORMAT);
+        }
+
+        // -1 if any of the bytes is not a digit.
+        private int digits(int from, int count) {
+            int value = 0;
+            for (int i = from; i < from + count; i++) {
+                int digit = buffer.get(i) - '0';
+                if (digit < 0 || digit > 9) {
+                    return -1;
+                }
+                value = value * 10 + digit;
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Open-addressing table from field bytes to a String, so equal values share one instance
+     * and bytes already seen are never decoded again. Stops adding once {@code capacity} values
+     * are held; later values are decoded each time.
+     */
+    private static final class Interner {
+        private final int capacity;
+        private byte[][] keys = new byte[16][];
+        private String[] values = new String[16];
+        private int[] hashes = new int[16];
+        private int size;
+
+        private Interner(int capacity) {
+            this.capacity = capacity;
+        }
+
+        private String get(Record record, int field) {
+            ByteBuffer buffer = record.buffer;
+            int s = record.fieldStart[field];
+            int e = record.fieldEnd[field];
+            int hash = 1;
+            for (int i = s; i < e; i++) {
+                hash = 31 * hash + buffer.get(i);
+            }
+            int mask = keys.length - 1;
+            for (int slot = mix(hash) & mask; keys[slot] != null; slot = (slot + 1) & mask) {
+                if (hashes[slot] == hash && matches(keys[slot], buffer, s, e)) {
+                    return values[slot];
+                }
+            }
+            String text = record.text(field);
+            if (size < capacity) {
+                if (2 * (size + 1) > keys.length) {
+                    grow();
+                }
+                byte[] key = new byte[e - s];
+                buffer.get(s, key);
+                insert(key, text, hash);
+            }
+            return text;
+        }
+
+        private static boolean matches(byte[] key, ByteBuffer buffer, int s, int e) {
+            if (key.length != e - s) {
+                return false;
+            }
+            for (int i = 0; i < key.length; i++) {
+                if (key[i] != buffer.get(s + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void insert(byte[] key, String value, int hash) {
+            int mask = keys.length - 1;
+            int slot = mix(hash) & mask;
+            while (keys[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            values[slot] = value;
+            hashes[slot] = hash;
+            size++;
+        }
+
+        private void grow() {
+            byte[][] oldKeys = keys;
+            String[] oldValues = values;
+            int[] oldHashes = hashes;
+            keys = new byte[oldKeys.length * 2][];
+            values = new String[oldKeys.length * 2];
+            hashes = new int[oldKeys.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null) {
+                    insert(oldKeys[i], oldValues[i], oldHashes[i]);
+                }
+            }
+        }
+
+        private static int mix(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
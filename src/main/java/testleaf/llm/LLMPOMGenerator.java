@@ -7,44 +7,86 @@ import javax.xml.parsers.DocumentBuilderFactory;
 import java.io.ByteArrayInputStream;
 import java.util.ArrayList;
 import java.util.List;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 @Component
 public class LLMPOMGenerator {
 
+    private final LLMGateway llmGateway;
+    private final LLMPromptTemplates promptTemplates;
+
+    public LLMPOMGenerator(LLMGateway llmGateway, LLMPromptTemplates promptTemplates) {
+        this.llmGateway = llmGateway;
+        this.promptTemplates = promptTemplates;
+    }
+
     public String generatePOMWithFallback(String xmlContent, String platform, String className, String packageName, String baseClassName, String mode,
                                           String llmApiUrl, String llmApiKey, String llmModel) throws Exception {
         try {
             return generateUsingLLM(xmlContent, platform, className, packageName, baseClassName, mode, llmApiUrl, llmApiKey, llmModel);
         } catch (Exception e) {
-            switch (mode) {
-                case "ANDROID":
-                case "IOS":
-                    return generateMobilePOM(xmlContent, platform, className, packageName);
-                case "CROSS_PLATFORM":
-                    return generateCrossPlatformPOMWithMethods(xmlContent, className, packageName, baseClassName);
-                case "DYNAMIC_RUNTIME":
-                    return generateDynamicPOMWithMethods(xmlContent, className, packageName, baseClassName);
-                default:
-                    throw new RuntimeException("Unsupported generation mode.");
+            return generateWithoutLLM(xmlContent, platform, className, packageName, baseClassName, mode);
+        }
+    }
+
+    /**
+     * Non-blocking variant of {@link #generatePOMWithFallback}. The template fallback runs once the
+     * LLM attempt has failed; its own errors surface as the future's failure.
+     */
+    public CompletableFuture<String> generatePOMWithFallbackAsync(String xmlContent, String platform, String className, String packageName,
+                                                                  String baseClassName, String mode,
+                                                                  String llmApiUrl, String llmApiKey, String llmModel) {
+        CompletableFuture<String> llmAttempt;
+        try {
+            llmAttempt = generateUsingLLMAsync(xmlContent, platform, className, packageName, baseClassName, mode, llmApiUrl, llmApiKey, llmModel);
+        } catch (Exception e) {
+            llmAttempt = CompletableFuture.failedFuture(e);
+        }
+
+        return llmAttempt.handle((code, error) -> {
+            if (error == null) {
+                return code;
             }
+            try {
+                return generateWithoutLLM(xmlContent, platform, className, packageName, baseClassName, mode);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    private String generateWithoutLLM(String xmlContent, String platform, String className, String packageName, String baseClassName,
+                                      String mode) throws Exception {
+        switch (mode) {
+            case "ANDROID":
+            case "IOS":
+                return generateMobilePOM(xmlContent, platform, className, packageName);
+            case "CROSS_PLATFORM":
+                return generateCrossPlatformPOMWithMethods(xmlContent, className, packageName, baseClassName);
+            case "DYNAMIC_RUNTIME":
+                return generateDynamicPOMWithMethods(xmlContent, className, packageName, baseClassName);
+            default:
+                throw new RuntimeException("Unsupported generation mode.");
         }
     }
 
     private String generateUsingLLM(String xmlContent, String platform, String className, String packageName, String baseClassName, String mode,
                                     String llmApiUrl, String llmApiKey, String llmModel) throws Exception {
+        return LLMGateway.await(generateUsingLLMAsync(xmlContent, platform, className, packageName, baseClassName, mode, llmApiUrl, llmApiKey, llmModel));
+    }
+
+    private CompletableFuture<String> generateUsingLLMAsync(String xmlContent, String platform, String className, String packageName,
+                                                            String baseClassName, String mode,
+                                                            String llmApiUrl, String llmApiKey, String llmModel) throws Exception {
         List<String> locators = extractFieldLocators(xmlContent, platform);
         if (locators.isEmpty()) throw new RuntimeException("No elements found for LLM generation.");
 
-        String prompt = buildPrompt(platform, className, packageName, baseClassName, mode, locators);
-        String aiResponse = callLLM(prompt, llmApiUrl, llmApiKey, llmModel);
-        return extractJavaCode(aiResponse);
+        LLMPrompt prompt = buildPrompt(platform, className, packageName, baseClassName, mode, locators);
+        return callLLMAsync(prompt, llmApiUrl, llmApiKey, llmModel).thenApply(this::extractJavaCode);
     }
 
     private List<String> extractFieldLocators(String xmlContent, String platform) throws Exception {
@@ -74,59 +116,40 @@ public class LLMPOMGenerator {
         return null;
     }
 
-    private String buildPrompt(String platform, String className, String packageName, String baseClassName, String mode, List<String> locators) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("Generate a Java Appium POM class for ").append(platform).append(" using ").append(mode).append(" mode.\n")
-                .append("Class name: ").append(className).append("\n")
-                .append("Package: ").append(packageName).append("\n");
-
-        if (baseClassName != null && !baseClassName.isBlank()) {
-            sb.append("Extend base class: ").append(baseClassName).append("\n");
-        }
-
-        if (mode.equalsIgnoreCase("CROSS_PLATFORM") || mode.equalsIgnoreCase("DYNAMIC_RUNTIME")) {
-            sb.append("Also include basic actions (click, sendKeys), waits, assertions, validations like isLoginButtonVisible, and compound login methods.\n");
-        }
+    private LLMPrompt buildPrompt(String platform, String className, String packageName, String baseClassName, String mode, List<String> locators) {
+        String baseClass = baseClassName != null && !baseClassName.isBlank()
+                ? "Extend base class: " + baseClassName + "\n" : "";
+
+        String actions = mode.equalsIgnoreCase("CROSS_PLATFORM") || mode.equalsIgnoreCase("DYNAMIC_RUNTIME")
+                ? "Also include basic actions (click, sendKeys), waits, assertions, validations like isLoginButtonVisible, and compound login methods.\n"
+                : "";
+
+        StringBuilder fields = new StringBuilder();
+        locators.forEach(l -> fields.append("- ").append(l).append("\n"));
+
+        return promptTemplates.get("pom-user").bind(
+                "platform", platform,
+                "mode", mode,
+                "className", className,
+                "packageName", packageName,
+                "baseClass", baseClass,
+                "actions", actions,
+                "fields", fields.toString());
+    }
 
-        sb.append("Fields:\n");
-        locators.forEach(l -> sb.append("- ").append(l).append("\n"));
+    private CompletableFuture<String> callLLMAsync(LLMPrompt prompt, String llmApiUrl, String llmApiKey, String llmModel) {
+        LLMChatRequest request = new LLMChatRequest(llmApiUrl, llmApiKey, llmModel)
+                .task("pom")
+                .temperature(0.3)
+                .maxTokens(1800)
+                .message("system", promptTemplates.get("pom-system").bind())
+                .message("user", prompt);
 
-        sb.append("\nOutput only full Java code inside a code block like ```java ...```.");
-        return sb.toString();
+        return llmGateway.completeAsync(request, "pom", this::parseCompletion);
     }
 
-    private String callLLM(String prompt, String llmApiUrl, String llmApiKey, String llmModel) throws Exception {
-        ObjectMapper mapper = new ObjectMapper();
-        Map<String, Object> payload = new HashMap<>();
-        payload.put("model", llmModel);
-        payload.put("temperature", 0.3);
-        payload.put("max_tokens", 1800);
-
-        List<Map<String, String>> messages = new ArrayList<>();
-        messages.add(Map.of("role", "system", "content", "You are an expert Appium QA assistant writing clean Page Object classes."));
-        messages.add(Map.of("role", "user", "content", prompt));
-        payload.put("messages", messages);
-
-        String requestBody = mapper.writeValueAsString(payload);
-
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(llmApiUrl))
-                .header("Authorization", "Bearer " + llmApiKey)
-                .header("Content-Type", "application/json")
-                .POST(HttpRequest.BodyPublishers.ofString(requestBody))
-                .build();
-
-        HttpClient client = HttpClient.newHttpClient();
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-        JsonNode json = mapper.readTree(response.body());
-
-        if (json.has("choices")) {
-            return json.get("choices").get(0).get("message").get("content").asText();
-        } else if (json.has("error")) {
-            throw new RuntimeException("LLM Error: " + json.get("error").get("message").asText());
-        } else {
-            throw new RuntimeException("Unexpected LLM response.");
-        }
+    private String parseCompletion(String body) {
+        return LLMCompletion.parse(body).requireContent();
     }
 
     private String extractJavaCode(String content) {
@@ -0,0 +1,97 @@
+package testleaf.llm;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The content of one chat message: either plain text, or an {@link LLMPromptTemplate} with
+ * its values bound. Rendering to a single string is only needed for logging or streaming
+ * replays; request bodies are written from the parts.
+ */
+public final class LLMPrompt {
+
+    private final LLMPromptTemplate template;
+    private final String[] values;
+
+    LLMPrompt(LLMPromptTemplate template, String[] values) {
+        this.template = template;
+        this.values = values;
+    }
+
+    public static LLMPrompt of(String text) {
+        return new LLMPrompt(null, new String[]{text == null ? "null" : text});
+    }
+
+    /**
+     * Number of characters the rendered prompt has, without rendering it.
+     */
+    public int length() {
+        int length = template == null ? 0 : template.literalLength();
+        for (String value : values) {
+            length += value.length();
+        }
+        return length;
+    }
+
+    /**
+     * Estimated token count: the template's precomputed literal tokens plus the bound values.
+     */
+    public int estimatedTokens() {
+        int tokens = template == null ? 0 : template.literalTokens();
+        for (String value : values) {
+            tokens += LLMTokenEstimator.estimate(value);
+        }
+        return tokens;
+    }
+
+    public String render() {
+        if (template == null) {
+            return values[0];
+        }
+        StringBuilder sb = new StringBuilder(length());
+        for (int i = 0; i < values.length; i++) {
+            sb.append(template.literal(i)).append(values[i]);
+        }
+        return sb.append(template.literal(values.length)).toString();
+    }
+
+    /**
+     * Appends the prompt as the inside of a JSON string: the template's pre-escaped literal
+     * bytes are shared as-is, only bound values are escaped here.
+     */
+    void appendJson(List<byte[]> out) {
+        JsonStringEncoder encoder = JsonStringEncoder.getInstance();
+        if (template == null) {
+            out.add(encoder.quoteAsUTF8(values[0]));
+            return;
+        }
+        for (int i = 0; i < values.length; i++) {
+            out.add(template.jsonLiteral(i));
+            out.add(encoder.quoteAsUTF8(values[i]));
+        }
+        out.add(template.jsonLiteral(values.length));
+    }
+
+    /**
+     * What identifies this prompt for response caching: the text itself, or the template
+     * fingerprint plus bound values.
+     */
+    Object identity() {
+        if (template == null) {
+            return values[0];
+        }
+        Map<String, Object> identity = new LinkedHashMap<>();
+        identity.put("template", template.getName() + "@" + template.getFingerprint());
+        identity.put("values", Arrays.asList(values));
+        return identity;
+    }
+
+    @Override
+    public String toString() {
+        return render();
+    }
+}
@@ -0,0 +1,130 @@
+package testleaf.llm;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * A prompt compiled once from text with {@code {{name}}} placeholders. The literal parts are
+ * kept both as text and as pre-escaped JSON string bytes, so writing a request body only
+ * escapes the values bound per call; their token count is likewise estimated once.
+ */
+public final class LLMPromptTemplate {
+
+    private static final String OPEN = "{{";
+    private static final String CLOSE = "}}";
+
+    private final String name;
+    private final String fingerprint;
+    private final String[] literals;
+    private final String[] placeholders;
+    private final byte[][] jsonLiterals;
+    private final int literalLength;
+    private final int literalTokens;
+
+    private LLMPromptTemplate(String name, String fingerprint, String[] literals, String[] placeholders) {
+        this.name = name;
+        this.fingerprint = fingerprint;
+        this.literals = literals;
+        this.placeholders = placeholders;
+        this.jsonLiterals = new byte[literals.length][];
+        int length = 0;
+        int tokens = 0;
+        for (int i = 0; i < literals.length; i++) {
+            jsonLiterals[i] = JsonStringEncoder.getInstance().quoteAsUTF8(literals[i]);
+            length += literals[i].length();
+            tokens += LLMTokenEstimator.estimate(literals[i]);
+        }
+        this.literalLength = length;
+        this.literalTokens = tokens;
+    }
+
+    public static LLMPromptTemplate compile(String name, String source) {
+        List<String> literals = new ArrayList<>();
+        List<String> placeholders = new ArrayList<>();
+        int position = 0;
+        while (true) {
+            int open = source.indexOf(OPEN, position);
+            int close = open < 0 ? -1 : source.indexOf(CLOSE, open + OPEN.length());
+            if (close < 0) {
+                literals.add(source.substring(position));
+                break;
+            }
+            literals.add(source.substring(position, open));
+            placeholders.add(source.substring(open + OPEN.length(), close).trim());
+            position = close + CLOSE.length();
+        }
+        return new LLMPromptTemplate(name, sha256(source),
+                literals.toArray(new String[0]), placeholders.toArray(new String[0]));
+    }
+
+    /**
+     * Binds placeholder values given as alternating name/value pairs. Every placeholder must be
+     * bound; {@code null} values render as {@code "null"}, like string concatenation would.
+     */
+    public LLMPrompt bind(String... namesAndValues) {
+        if (namesAndValues.length % 2 != 0) {
+            throw new IllegalArgumentException("Prompt template " + name + " expects name/value pairs");
+        }
+        String[] values = new String[placeholders.length];
+        for (int i = 0; i < placeholders.length; i++) {
+            values[i] = valueFor(placeholders[i], namesAndValues);
+        }
+        return new LLMPrompt(this, values);
+    }
+
+    private String valueFor(String placeholder, String[] namesAndValues) {
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            if (namesAndValues[i].equals(placeholder)) {
+                return String.valueOf(namesAndValues[i + 1]);
+            }
+        }
+        throw new IllegalArgumentException("Prompt template " + name + " has no value for {{" + placeholder + "}}");
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * SHA-256 of the template source; part of the response cache key, so editing a template
+     * never serves answers produced by its previous wording.
+     */
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    String literal(int index) {
+        return literals[index];
+    }
+
+    byte[] jsonLiteral(int index) {
+        return jsonLiterals[index];
+    }
+
+    int placeholderCount() {
+        return placeholders.length;
+    }
+
+    int literalLength() {
+        return literalLength;
+    }
+
+    int literalTokens() {
+        return literalTokens;
+    }
+
+    private static String sha256(String source) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(source.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 unavailable", e);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package testleaf.llm;
+
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Loads every {@code classpath:prompts/*.txt} once at startup and compiles it into an
+ * {@link LLMPromptTemplate} named after the file. A single trailing newline (the one editors
+ * add) is dropped; anything beyond that is part of the prompt.
+ */
+@Component
+public class LLMPromptTemplates {
+
+    private static final Logger LOGGER = Logger.getLogger(LLMPromptTemplates.class.getName());
+    private static final String LOCATION = "classpath*:prompts/*.txt";
+
+    private final Map<String, LLMPromptTemplate> templates = new HashMap<>();
+
+    public LLMPromptTemplates() {
+        try {
+            for (Resource resource : new PathMatchingResourcePatternResolver().getResources(LOCATION)) {
+                String file = resource.getFilename();
+                if (file == null) {
+                    continue;
+                }
+                String name = file.substring(0, file.length() - ".txt".length());
+                templates.put(name, LLMPromptTemplate.compile(name, read(resource)));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to load prompt templates from " + LOCATION, e);
+        }
+        LOGGER.info("Loaded " + templates.size() + " prompt templates");
+    }
+
+    public LLMPromptTemplate get(String name) {
+        LLMPromptTemplate template = templates.get(name);
+        if (template == null) {
+            throw new IllegalArgumentException("Unknown prompt template: " + name);
+        }
+        return template;
+    }
+
+    private static String read(Resource resource) throws IOException {
+        try (InputStream in = resource.getInputStream()) {
+            String text = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            if (text.endsWith("\r\n")) {
+                return text.substring(0, text.length() - 2);
+            }
+            return text.endsWith("\n") ? text.substring(0, text.length() - 1) : text;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package testleaf.llm;
+
+/**
+ * Thrown when an LLM call could not be served because of rate limiting: either the local
+ * wait queue for the endpoint is full, or the provider kept answering HTTP 429 after all retries.
+ */
+public class LLMRateLimitedException extends RuntimeException {
+
+    private final long retryAfterSeconds;
+
+    public LLMRateLimitedException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * Suggested wait before trying again, in seconds.
+     */
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
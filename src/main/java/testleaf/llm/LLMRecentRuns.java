@@ -0,0 +1,184 @@
+package testleaf.llm;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The latest runs of one test, capped at a fixed count, stored column-wise: epoch-second times
+ * and durations in {@code long[]}, the status as a byte code and the parsed error message by
+ * reference. PASSED, FAILED and SKIPPED (exactly as written) have fixed codes; any other status
+ * text is kept as given in a column that is only allocated once such a run is kept, so uploads
+ * can use any statuses without a shared dictionary. A kept run costs about 21 bytes instead of the entry,
+ * {@link LocalDateTime} (with its date and time) and status string of an
+ * {@link LLMFlakyTestRunEntry}; entries are only built when {@link #toEntries} is called.
+ * <p>
+ * The columns form a min-heap on time, so the oldest kept run is the one to evict. Runs without
+ * a time sort before all others.
+ */
+final class LLMRecentRuns {
+
+    static final long NO_TIME = Long.MIN_VALUE;
+    private static final byte NO_STATUS = -1;
+    private static final byte OTHER_STATUS = 0;
+    // Index is the status code; code 0 stands for text kept in otherStatuses.
+    private static final String[] STATUS_NAMES = {null, "PASSED", "FAILED", "SKIPPED"};
+
+    private final int capacity;
+    private long[] times = new long[0];
+    private long[] durations = new long[0];
+    private byte[] statuses = new byte[0];
+    private String[] errors = new String[0];
+    private String[] otherStatuses;
+    private int size;
+
+    LLMRecentRuns(int capacity) {
+        this.capacity = Math.max(0, capacity);
+    }
+
+    static long epochSeconds(LocalDateTime executedAt) {
+        return executedAt == null ? NO_TIME : executedAt.toEpochSecond(ZoneOffset.UTC);
+    }
+
+    private static byte statusCode(String status) {
+        if (status == null) {
+            return NO_STATUS;
+        }
+        for (byte code = 1; code < STATUS_NAMES.length; code++) {
+            if (STATUS_NAMES[code].equals(status)) {
+                return code;
+            }
+        }
+        return OTHER_STATUS;
+    }
+
+    private String statusAt(int i) {
+        byte code = statuses[i];
+        if (code == NO_STATUS) {
+            return null;
+        }
+        return code == OTHER_STATUS ? otherStatuses[i] : STATUS_NAMES[code];
+    }
+
+    /**
+     * Whether a run at {@code time} would be kept: there is room, or it is not older than the
+     * oldest kept run.
+     */
+    boolean accepts(long time) {
+        if (capacity == 0) {
+            return false;
+        }
+        return size < capacity || (time != NO_TIME && time >= times[0]);
+    }
+
+    void add(long time, long duration, String status, String error) {
+        if (!accepts(time)) {
+            return;
+        }
+        if (size == capacity) {
+            // Replace the oldest run and restore the heap from the root.
+            set(0, time, duration, status, error);
+            siftDown(0);
+            return;
+        }
+        if (size == times.length) {
+            int grown = Math.min(capacity, Math.max(4, size * 2));
+            times = Arrays.copyOf(times, grown);
+            durations = Arrays.copyOf(durations, grown);
+            statuses = Arrays.copyOf(statuses, grown);
+            errors = Arrays.copyOf(errors, grown);
+            if (otherStatuses != null) {
+                otherStatuses = Arrays.copyOf(otherStatuses, grown);
+            }
+        }
+        set(size, time, duration, status, error);
+        siftUp(size++);
+    }
+
+    void merge(LLMRecentRuns other) {
+        for (int i = 0; i < other.size; i++) {
+            add(other.times[i], other.durations[i], other.statusAt(i), other.errors[i]);
+        }
+    }
+
+    /**
+     * The kept runs as entries, oldest first.
+     */
+    List<LLMFlakyTestRunEntry> toEntries(String testName) {
+        Integer[] order = new Integer[size];
+        Arrays.setAll(order, i -> i);
+        Arrays.sort(order, (a, b) -> Long.compare(times[a], times[b]));
+        List<LLMFlakyTestRunEntry> entries = new ArrayList<>(size);
+        for (int i : order) {
+            LocalDateTime executedAt = times[i] == NO_TIME ? null : LocalDateTime.ofEpochSecond(times[i], 0, ZoneOffset.UTC);
+            entries.add(new LLMFlakyTestRunEntry(testName, statusAt(i), durations[i], errors[i], executedAt));
+        }
+        return entries;
+    }
+
+    private void set(int i, long time, long duration, String status, String error) {
+        byte code = statusCode(status);
+        times[i] = time;
+        durations[i] = duration;
+        statuses[i] = code;
+        errors[i] = error;
+        if (code == OTHER_STATUS && otherStatuses == null) {
+            otherStatuses = new String[times.length];
+        }
+        if (otherStatuses != null) {
+            otherStatuses[i] = code == OTHER_STATUS ? status : null;
+        }
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (times[parent] <= times[i]) {
+                return;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int smallest = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < size && times[left] < times[smallest]) {
+                smallest = left;
+            }
+            if (right < size && times[right] < times[smallest]) {
+                smallest = right;
+            }
+            if (smallest == i) {
+                return;
+            }
+            swap(i, smallest);
+            i = smallest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        long time = times[a];
+        times[a] = times[b];
+        times[b] = time;
+        long duration = durations[a];
+        durations[a] = durations[b];
+        durations[b] = duration;
+        byte status = statuses[a];
+        statuses[a] = statuses[b];
+        statuses[b] = status;
+        String error = errors[a];
+        errors[a] = errors[b];
+        errors[b] = error;
+        if (otherStatuses != null) {
+            String other = otherStatuses[a];
+            otherStatuses[a] = otherStatuses[b];
+            otherStatuses[b] = other;
+        }
+    }
+}
@@ -0,0 +1,342 @@
+package testleaf.llm;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed cache of raw LLM completion bodies, keyed on a SHA-256 of
+ * (endpoint, model, temperature, top_p, max_tokens, messages). The in-memory tier is an LRU
+ * bounded by entry count, total size and TTL; an optional disk tier keeps entries
+ * across restarts. The disk tier is swept every {@code disk-sweep-seconds} for expired
+ * entries, and once it grows past {@code disk-max-bytes} its oldest entries are deleted
+ * until it is back under 90% of that. Entries are never rewritten in place, so the oldest
+ * are also the next to expire.
+ */
+@Component
+public class LLMResponseCache {
+
+    private static final Logger LOGGER = Logger.getLogger(LLMResponseCache.class.getName());
+
+    private final ObjectMapper mapper = LLMJson.MAPPER;
+    private final LinkedHashMap<String, CachedResponse> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final boolean enabled;
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long ttlMillis;
+    private final Path diskDir;
+    private final long diskMaxBytes;
+    private final ScheduledExecutorService sweeper;
+    private final Object diskLock = new Object();
+    private final AtomicLong diskBytes = new AtomicLong();
+    private final AtomicBoolean sweepQueued = new AtomicBoolean();
+
+    private long currentBytes;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public LLMResponseCache(@Value("${llm.cache.enabled:true}") boolean enabled,
+                            @Value("${llm.cache.max-entries:500}") int maxEntries,
+                            @Value("${llm.cache.max-bytes:52428800}") long maxBytes,
+                            @Value("${llm.cache.ttl-seconds:86400}") long ttlSeconds,
+                            @Value("${llm.cache.disk-dir:}") String diskDir,
+                            @Value("${llm.cache.disk-max-bytes:524288000}") long diskMaxBytes,
+                            @Value("${llm.cache.disk-sweep-seconds:3600}") long diskSweepSeconds) {
+        this.enabled = enabled;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.ttlMillis = ttlSeconds * 1000;
+        this.diskDir = enabled ? openDiskDir(diskDir) : null;
+        this.diskMaxBytes = diskMaxBytes;
+        if (this.diskDir == null) {
+            this.sweeper = null;
+            return;
+        }
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "llm-cache-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweepDisk();
+        if (diskSweepSeconds > 0) {
+            sweeper.scheduleWithFixedDelay(this::sweepDisk, diskSweepSeconds, diskSweepSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Computes the cache key for a request. The API key is deliberately left out so the
+     * same prompt hits regardless of which credentials sent it; the endpoint is kept, since
+     * two providers serving a model under the same name need not answer alike.
+     */
+    public String keyFor(LLMChatRequest request) {
+        Map<String, Object> identity = new LinkedHashMap<>();
+        identity.put("api_url", request.getApiUrl());
+        identity.put("model", request.getModel());
+        identity.put("temperature", request.getTemperature());
+        identity.put("top_p", request.getTopP());
+        identity.put("max_tokens", request.getMaxTokens());
+        List<Map<String, Object>> messages = new ArrayList<>();
+        for (LLMChatRequest.Message message : request.getMessages()) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("role", message.role());
+            entry.put("content", message.content().identity());
+            messages.add(entry);
+        }
+        identity.put("messages", messages);
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(mapper.writeValueAsBytes(identity)));
+        } catch (IOException | NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Unable to hash LLM request", e);
+        }
+    }
+
+    public String get(String key) {
+        return get(List.of(key));
+    }
+
+    /**
+     * The body cached under the first of {@code keys} that has one, counted as a single hit or miss.
+     */
+    public String get(List<String> keys) {
+        long now = System.currentTimeMillis();
+        for (String key : keys) {
+            String body = lookup(key, now);
+            if (body != null) {
+                hits.incrementAndGet();
+                return body;
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    private String lookup(String key, long now) {
+        synchronized (this) {
+            CachedResponse cached = entries.get(key);
+            if (cached != null) {
+                if (cached.expiresAt > now) {
+                    return cached.body;
+                }
+                remove(key);
+                evictions.incrementAndGet();
+            }
+        }
+
+        String fromDisk = readFromDisk(key, now);
+        if (fromDisk != null) {
+            diskHits.incrementAndGet();
+            putInMemory(key, fromDisk, now);
+        }
+        return fromDisk;
+    }
+
+    public void put(String key, String body) {
+        long now = System.currentTimeMillis();
+        putInMemory(key, body, now);
+        writeToDisk(key, body);
+    }
+
+    public Map<String, Long> stats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("hits", hits.get());
+        stats.put("diskHits", diskHits.get());
+        stats.put("misses", misses.get());
+        stats.put("evictions", evictions.get());
+        synchronized (this) {
+            stats.put("entries", (long) entries.size());
+            stats.put("bytes", currentBytes);
+        }
+        if (diskDir != null) {
+            stats.put("diskBytes", diskBytes.get());
+        }
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+        }
+    }
+
+    private synchronized void putInMemory(String key, String body, long now) {
+        long size = (long) body.length() * Character.BYTES;
+        if (size > maxBytes) {
+            return;
+        }
+        remove(key);
+        entries.put(key, new CachedResponse(body, now + ttlMillis, size));
+        currentBytes += size;
+
+        Iterator<Map.Entry<String, CachedResponse>> eldest = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || currentBytes > maxBytes) && eldest.hasNext()) {
+            CachedResponse evicted = eldest.next().getValue();
+            eldest.remove();
+            currentBytes -= evicted.size;
+            evictions.incrementAndGet();
+        }
+    }
+
+    private void remove(String key) {
+        CachedResponse removed = entries.remove(key);
+        if (removed != null) {
+            currentBytes -= removed.size;
+        }
+    }
+
+    private static Path openDiskDir(String diskDir) {
+        if (diskDir == null || diskDir.isBlank()) {
+            return null;
+        }
+        try {
+            return Files.createDirectories(Paths.get(diskDir));
+        } catch (IOException e) {
+            LOGGER.warning("Disabling LLM disk cache, cannot create " + diskDir + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private String readFromDisk(String key, long now) {
+        if (diskDir == null) {
+            return null;
+        }
+        Path file = diskDir.resolve(key + ".json");
+        try {
+            if (!Files.exists(file)) {
+                return null;
+            }
+            if (Files.getLastModifiedTime(file).toMillis() + ttlMillis <= now) {
+                long size = Files.size(file);
+                if (Files.deleteIfExists(file)) {
+                    diskBytes.addAndGet(-size);
+                    evictions.incrementAndGet();
+                }
+                return null;
+            }
+            return Files.readString(file, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            LOGGER.warning("Failed to read LLM disk cache entry " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void writeToDisk(String key, String body) {
+        if (diskDir == null) {
+            return;
+        }
+        try {
+            Path tmp = Files.createTempFile(diskDir, key, ".tmp");
+            Files.writeString(tmp, body, StandardCharsets.UTF_8);
+            long size = Files.size(tmp);
+            Path file = diskDir.resolve(key + ".json");
+            long replaced = Files.exists(file) ? Files.size(file) : 0;
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            if (diskBytes.addAndGet(size - replaced) > diskMaxBytes && diskMaxBytes > 0
+                    && sweepQueued.compareAndSet(false, true)) {
+                sweeper.execute(this::sweepDisk);
+            }
+        } catch (IOException e) {
+            LOGGER.warning("Failed to write LLM disk cache entry " + key + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Deletes expired disk entries, then the oldest ones while the disk tier is over
+     * {@code disk-max-bytes}, and recounts its size.
+     */
+    private void sweepDisk() {
+        synchronized (diskLock) {
+            sweepQueued.set(false);
+            long now = System.currentTimeMillis();
+            List<DiskEntry> live = new ArrayList<>();
+            long total = 0;
+            try (Stream<Path> files = Files.list(diskDir)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    if (!file.getFileName().toString().endsWith(".json")) {
+                        continue;
+                    }
+                    try {
+                        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                        long modified = attributes.lastModifiedTime().toMillis();
+                        if (modified + ttlMillis <= now) {
+                            Files.deleteIfExists(file);
+                            evictions.incrementAndGet();
+                        } else {
+                            live.add(new DiskEntry(file, modified, attributes.size()));
+                            total += attributes.size();
+                        }
+                    } catch (IOException e) {
+                        // Replaced or deleted while listing; the next sweep counts it again.
+                    }
+                }
+            } catch (IOException e) {
+                LOGGER.warning("Failed to sweep LLM disk cache " + diskDir + ": " + e.getMessage());
+                return;
+            }
+            if (diskMaxBytes > 0 && total > diskMaxBytes) {
+                live.sort(Comparator.comparingLong(DiskEntry::modified));
+                for (DiskEntry entry : live) {
+                    if (total <= diskMaxBytes / 10 * 9) {
+                        break;
+                    }
+                    try {
+                        Files.deleteIfExists(entry.file());
+                        total -= entry.size();
+                        evictions.incrementAndGet();
+                    } catch (IOException e) {
+                        LOGGER.warning("Failed to evict LLM disk cache entry " + entry.file() + ": " + e.getMessage());
+                    }
+                }
+            }
+            diskBytes.set(total);
+        }
+    }
+
+    private record DiskEntry(Path file, long modified, long size) {
+    }
+
+    private static final class CachedResponse {
+        private final String body;
+        private final long expiresAt;
+        private final long size;
+
+        private CachedResponse(String body, long expiresAt, long size) {
+            this.body = body;
+            this.expiresAt = expiresAt;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package testleaf.llm;
+
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Picks which endpoint serves a request. Candidates are the endpoint the caller asked for
+ * plus any routes configured for the request's task; healthy ones are ordered by an EWMA of
+ * observed latency. Endpoints that fail repeatedly sit out a cool-down. Also supplies the
+ * p95-based delay after which the gateway fires a hedged duplicate.
+ */
+@Component
+public class LLMRouter {
+
+    private static final int LATENCY_WINDOW = 128;
+
+    private final LLMRoutingProperties properties;
+    private final Map<String, EndpointStats> endpoints = new ConcurrentHashMap<>();
+    private final AtomicLong hedgesFired = new AtomicLong();
+    private final AtomicLong hedgesWon = new AtomicLong();
+
+    public LLMRouter(LLMRoutingProperties properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * Candidates for {@code request}, best first. Never empty: when every endpoint is cooling
+     * down they are all returned, soonest-recovering first.
+     */
+    public List<LLMChatRequest> candidates(LLMChatRequest request) {
+        List<LLMChatRequest> all = new ArrayList<>();
+        all.add(request);
+        for (LLMRoutingProperties.Route route : properties.routesFor(request.getTask())) {
+            LLMChatRequest alternate = request.withEndpoint(route.getUrl(), route.getKey(), route.getModel());
+            if (all.stream().noneMatch(existing -> endpointKey(existing).equals(endpointKey(alternate)))) {
+                all.add(alternate);
+            }
+        }
+        if (all.size() == 1) {
+            return all;
+        }
+
+        long now = System.currentTimeMillis();
+        List<LLMChatRequest> healthy = new ArrayList<>();
+        for (LLMChatRequest candidate : all) {
+            if (stats(candidate).isHealthy(now)) {
+                healthy.add(candidate);
+            }
+        }
+        if (healthy.isEmpty()) {
+            all.sort(Comparator.comparingLong(candidate -> stats(candidate).unhealthyUntil()));
+            return all;
+        }
+        // Stable sort: unmeasured endpoints count as 0 ms so each gets probed once, caller's endpoint first.
+        healthy.sort(Comparator.comparingDouble(candidate -> stats(candidate).ewma()));
+        return healthy;
+    }
+
+    public boolean isHedgingEnabled() {
+        return properties.getHedge().isEnabled();
+    }
+
+    /**
+     * How long to wait on {@code request}'s endpoint before hedging: its observed p95 latency,
+     * or the configured initial delay until enough samples exist.
+     */
+    public long hedgeDelayMillis(LLMChatRequest request) {
+        LLMRoutingProperties.Hedge hedge = properties.getHedge();
+        long p95 = stats(request).percentile(0.95, hedge.getMinSamples());
+        return Math.max(hedge.getMinDelayMs(), p95 < 0 ? hedge.getInitialDelayMs() : p95);
+    }
+
+    public void recordSuccess(LLMChatRequest request, long latencyMillis) {
+        stats(request).success(latencyMillis, properties.getEwmaAlpha());
+    }
+
+    public void recordFailure(LLMChatRequest request) {
+        stats(request).failure(System.currentTimeMillis(), properties.getFailureThreshold(), properties.getCooldownMs());
+    }
+
+    public void recordHedge(boolean won) {
+        hedgesFired.incrementAndGet();
+        if (won) {
+            hedgesWon.incrementAndGet();
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("hedgesFired", hedgesFired.get());
+        stats.put("hedgesWon", hedgesWon.get());
+        Map<String, Object> perEndpoint = new LinkedHashMap<>();
+        long now = System.currentTimeMillis();
+        endpoints.forEach((key, endpoint) -> perEndpoint.put(key, endpoint.describe(now)));
+        stats.put("endpoints", perEndpoint);
+        return stats;
+    }
+
+    private EndpointStats stats(LLMChatRequest request) {
+        return endpoints.computeIfAbsent(endpointKey(request), key -> new EndpointStats());
+    }
+
+    // The same URL serving different models is tracked separately; latency is mostly the model's.
+    private static String endpointKey(LLMChatRequest request) {
+        return request.getModel() + "@" + request.getApiUrl();
+    }
+
+    private static final class EndpointStats {
+        private final long[] window = new long[LATENCY_WINDOW];
+        private int samples;
+        private double ewma;
+        private int consecutiveFailures;
+        private long unhealthyUntil;
+
+        private synchronized void success(long latencyMillis, double alpha) {
+            ewma = samples == 0 ? latencyMillis : alpha * latencyMillis + (1 - alpha) * ewma;
+            window[samples % LATENCY_WINDOW] = latencyMillis;
+            samples++;
+            consecutiveFailures = 0;
+            unhealthyUntil = 0;
+        }
+
+        private synchronized void failure(long now, int threshold, long cooldownMs) {
+            if (++consecutiveFailures >= threshold) {
+                unhealthyUntil = now + cooldownMs;
+            }
+        }
+
+        private synchronized boolean isHealthy(long now) {
+            return unhealthyUntil <= now;
+        }
+
+        private synchronized long unhealthyUntil() {
+            return unhealthyUntil;
+        }
+
+        private synchronized double ewma() {
+            return ewma;
+        }
+
+        private synchronized long percentile(double quantile, int minSamples) {
+            if (samples < minSamples) {
+                return -1;
+            }
+            long[] sorted = Arrays.copyOf(window, Math.min(samples, LATENCY_WINDOW));
+            Arrays.sort(sorted);
+            return sorted[(int) Math.min(sorted.length - 1, Math.ceil(quantile * sorted.length) - 1)];
+        }
+
+        private synchronized Map<String, Object> describe(long now) {
+            Map<String, Object> description = new LinkedHashMap<>();
+            description.put("ewmaMillis", Math.round(ewma));
+            description.put("p95Millis", percentile(0.95, 1));
+            description.put("samples", samples);
+            description.put("consecutiveFailures", consecutiveFailures);
+            description.put("healthy", isHealthy(now));
+            return description;
+        }
+    }
+}
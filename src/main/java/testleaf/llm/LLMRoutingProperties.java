@@ -0,0 +1,133 @@
+package testleaf.llm;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@code llm.routing.*}: extra OpenAI-compatible endpoints per generator task
+ * (e.g. {@code llm.routing.routes.pom[0].url}), plus latency tracking and hedging settings.
+ */
+@Component
+@ConfigurationProperties(prefix = "llm.routing")
+public class LLMRoutingProperties {
+
+    private Map<String, List<Route>> routes = new HashMap<>();
+    private double ewmaAlpha = 0.2;
+    private int failureThreshold = 3;
+    private long cooldownMs = 30000;
+    private final Hedge hedge = new Hedge();
+
+    public Map<String, List<Route>> getRoutes() {
+        return routes;
+    }
+
+    public void setRoutes(Map<String, List<Route>> routes) {
+        this.routes = routes;
+    }
+
+    public double getEwmaAlpha() {
+        return ewmaAlpha;
+    }
+
+    public void setEwmaAlpha(double ewmaAlpha) {
+        this.ewmaAlpha = ewmaAlpha;
+    }
+
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    public void setFailureThreshold(int failureThreshold) {
+        this.failureThreshold = failureThreshold;
+    }
+
+    public long getCooldownMs() {
+        return cooldownMs;
+    }
+
+    public void setCooldownMs(long cooldownMs) {
+        this.cooldownMs = cooldownMs;
+    }
+
+    public Hedge getHedge() {
+        return hedge;
+    }
+
+    public List<Route> routesFor(String task) {
+        return task == null ? new ArrayList<>() : routes.getOrDefault(task, new ArrayList<>());
+    }
+
+    public static class Route {
+        private String url;
+        private String key;
+        private String model;
+
+        public String getUrl() {
+            return url;
+        }
+
+        public void setUrl(String url) {
+            this.url = url;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public void setKey(String key) {
+            this.key = key;
+        }
+
+        public String getModel() {
+            return model;
+        }
+
+        public void setModel(String model) {
+            this.model = model;
+        }
+    }
+
+    public static class Hedge {
+        private boolean enabled;
+        private long initialDelayMs = 8000;
+        private long minDelayMs = 1000;
+        private int minSamples = 10;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public long getInitialDelayMs() {
+            return initialDelayMs;
+        }
+
+        public void setInitialDelayMs(long initialDelayMs) {
+            this.initialDelayMs = initialDelayMs;
+        }
+
+        public long getMinDelayMs() {
+            return minDelayMs;
+        }
+
+        public void setMinDelayMs(long minDelayMs) {
+            this.minDelayMs = minDelayMs;
+        }
+
+        public int getMinSamples() {
+            return minSamples;
+        }
+
+        public void setMinSamples(int minSamples) {
+            this.minSamples = minSamples;
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package testleaf.llm;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Admission control in front of every LLM call. Each endpoint gets a concurrency cap,
+ * two token buckets (requests per minute and tokens per minute) and a bounded FIFO wait
+ * queue. Responses with HTTP 429/503 are retried after the provider's {@code Retry-After}
+ * or a jittered exponential backoff, and a 429 pauses the whole endpoint for that long.
+ * Nothing blocks: queued calls are released from a single timer thread.
+ */
+@Component
+public class LLMScheduler {
+
+    private static final Logger LOGGER = Logger.getLogger(LLMScheduler.class.getName());
+
+    private final int maxConcurrent;
+    private final double requestsPerMinute;
+    private final double tokensPerMinute;
+    private final int queueCapacity;
+    private final int maxRetries;
+    private final long baseBackoffMillis;
+    private final long maxBackoffMillis;
+
+    private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "llm-scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong totalWaitMillis = new AtomicLong();
+    private final AtomicLong maxWaitMillis = new AtomicLong();
+
+    public LLMScheduler(@Value("${llm.scheduler.max-concurrent:8}") int maxConcurrent,
+                        @Value("${llm.scheduler.requests-per-minute:30}") double requestsPerMinute,
+                        @Value("${llm.scheduler.tokens-per-minute:60000}") double tokensPerMinute,
+                        @Value("${llm.scheduler.queue-capacity:100}") int queueCapacity,
+                        @Value("${llm.scheduler.max-retries:3}") int maxRetries,
+                        @Value("${llm.scheduler.base-backoff-ms:500}") long baseBackoffMillis,
+                        @Value("${llm.scheduler.max-backoff-ms:30000}") long maxBackoffMillis) {
+        this.maxConcurrent = maxConcurrent;
+        this.requestsPerMinute = requestsPerMinute;
+        this.tokensPerMinute = tokensPerMinute;
+        this.queueCapacity = queueCapacity;
+        this.maxRetries = maxRetries;
+        this.baseBackoffMillis = baseBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    /**
+     * Queues {@code call} for {@code endpoint} and starts it once the endpoint has a free slot
+     * and enough request/token budget. When {@code retryable}, 429 and 503 responses are retried;
+     * the last response is returned as-is once retries run out. Fails with
+     * {@link LLMRateLimitedException} when the endpoint's wait queue is full.
+     */
+    public <T> CompletableFuture<HttpResponse<T>> submit(String endpoint, int estimatedTokens, boolean retryable,
+                                                         Supplier<CompletableFuture<HttpResponse<T>>> call) {
+        Endpoint state = endpoints.computeIfAbsent(endpoint, Endpoint::new);
+        Pending<T> pending = new Pending<>(estimatedTokens, retryable, call);
+
+        synchronized (state) {
+            if (state.queue.size() >= queueCapacity) {
+                rejected.incrementAndGet();
+                return CompletableFuture.failedFuture(new LLMRateLimitedException(
+                        "LLM request queue for " + endpoint + " is full (" + queueCapacity + " waiting)", state.secondsUntilReady()));
+            }
+            state.queue.addLast(pending);
+        }
+        pending.result.whenComplete((response, error) -> {
+            if (pending.result.isCancelled()) {
+                pending.cancel();
+            }
+        });
+        drain(state);
+        return pending.result;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long admittedCount = admitted.get();
+        stats.put("admitted", admittedCount);
+        stats.put("rejected", rejected.get());
+        stats.put("retried", retried.get());
+        stats.put("avgWaitMillis", admittedCount == 0 ? 0 : totalWaitMillis.get() / admittedCount);
+        stats.put("maxWaitMillis", maxWaitMillis.get());
+
+        Map<String, Map<String, Object>> perEndpoint = new LinkedHashMap<>();
+        for (Endpoint state : endpoints.values()) {
+            Map<String, Object> endpointStats = new LinkedHashMap<>();
+            synchronized (state) {
+                state.refill(System.nanoTime());
+                endpointStats.put("queueDepth", state.queue.size());
+                endpointStats.put("active", state.active);
+                endpointStats.put("requestBudget", (long) state.requestBudget);
+                endpointStats.put("tokenBudget", (long) state.tokenBudget);
+            }
+            perEndpoint.put(state.name, endpointStats);
+        }
+        stats.put("endpoints", perEndpoint);
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        timer.shutdownNow();
+    }
+
+    private void drain(Endpoint state) {
+        List<Pending<?>> toStart = new ArrayList<>();
+        synchronized (state) {
+            long now = System.nanoTime();
+            state.refill(now);
+            while (!state.queue.isEmpty()) {
+                Pending<?> head = state.queue.peekFirst();
+                if (head.result.isDone()) {
+                    state.queue.pollFirst();
+                    continue;
+                }
+                if (state.active >= maxConcurrent) {
+                    break; // Re-drained when a running call finishes.
+                }
+                if (now < state.pausedUntil) {
+                    scheduleDrain(state, state.pausedUntil - now);
+                    break;
+                }
+                // A single request larger than the whole minute budget waits for a full bucket, then goes.
+                double tokenCost = Math.min(head.estimatedTokens, tokensPerMinute);
+                if (state.requestBudget < 1 || state.tokenBudget < tokenCost) {
+                    double requestWait = (1 - state.requestBudget) / requestsPerMinute;
+                    double tokenWait = (tokenCost - state.tokenBudget) / tokensPerMinute;
+                    long waitNanos = (long) (Math.max(requestWait, tokenWait) * TimeUnit.MINUTES.toNanos(1));
+                    scheduleDrain(state, Math.max(waitNanos, TimeUnit.MILLISECONDS.toNanos(1)));
+                    break;
+                }
+                state.queue.pollFirst();
+                state.requestBudget -= 1;
+                state.tokenBudget -= tokenCost;
+                state.active++;
+                toStart.add(head);
+            }
+        }
+        for (Pending<?> pending : toStart) {
+            start(state, pending);
+        }
+    }
+
+    private <T> void start(Endpoint state, Pending<T> pending) {
+        long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - pending.enqueuedAt);
+        if (pending.attempt == 0) {
+            admitted.incrementAndGet();
+            totalWaitMillis.addAndGet(waited);
+            maxWaitMillis.accumulateAndGet(waited, Math::max);
+        }
+
+        CompletableFuture<HttpResponse<T>> call;
+        try {
+            call = pending.call.get();
+        } catch (RuntimeException e) {
+            call = CompletableFuture.failedFuture(e);
+        }
+        pending.running = call;
+        if (pending.result.isCancelled()) {
+            call.cancel(true);
+        }
+
+        call.whenComplete((response, error) -> {
+            synchronized (state) {
+                state.active--;
+            }
+            if (error != null) {
+                pending.result.completeExceptionally(LLMGateway.unwrap(error));
+            } else if (shouldRetry(pending, response)) {
+                long delayMillis = retryDelayMillis(response, pending.attempt);
+                if (response.statusCode() == 429) {
+                    synchronized (state) {
+                        state.pausedUntil = Math.max(state.pausedUntil, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis));
+                    }
+                }
+                pending.attempt++;
+                retried.incrementAndGet();
+                LOGGER.warning("LLM endpoint " + state.name + " answered HTTP " + response.statusCode()
+                        + ", retry " + pending.attempt + "/" + maxRetries + " in " + delayMillis + "ms");
+                timer.schedule(() -> {
+                    synchronized (state) {
+                        state.queue.addFirst(pending);
+                    }
+                    drain(state);
+                }, delayMillis, TimeUnit.MILLISECONDS);
+            } else {
+                pending.result.complete(response);
+            }
+            drain(state);
+        });
+    }
+
+    private boolean shouldRetry(Pending<?> pending, HttpResponse<?> response) {
+        int status = response.statusCode();
+        return pending.retryable && (status == 429 || status == 503) && pending.attempt < maxRetries
+                && !pending.result.isDone();
+    }
+
+    /**
+     * Seconds the provider asked callers to wait in its {@code Retry-After} header, if any.
+     */
+    public static Optional<Long> retryAfterSeconds(HttpResponse<?> response) {
+        return response.headers().firstValue("retry-after").flatMap(LLMScheduler::parseRetryAfter)
+                .map(millis -> Math.max(1, TimeUnit.MILLISECONDS.toSeconds(millis)));
+    }
+
+    private long retryDelayMillis(HttpResponse<?> response, int attempt) {
+        Optional<Long> retryAfter = response.headers().firstValue("retry-after").flatMap(LLMScheduler::parseRetryAfter);
+        if (retryAfter.isPresent()) {
+            return Math.min(retryAfter.get(), maxBackoffMillis);
+        }
+        // Jittered exponential: uniform in [base / 2, base * 2^attempt], capped at the max backoff.
+        long ceiling = Math.min(maxBackoffMillis, baseBackoffMillis << Math.min(attempt, 20));
+        return ThreadLocalRandom.current().nextLong(baseBackoffMillis / 2, Math.max(ceiling, baseBackoffMillis) + 1);
+    }
+
+    private static Optional<Long> parseRetryAfter(String value) {
+        String trimmed = value.trim();
+        try {
+            return Optional.of((long) (Double.parseDouble(trimmed) * 1000));
+        } catch (NumberFormatException notSeconds) {
+            try {
+                ZonedDateTime at = ZonedDateTime.parse(trimmed, DateTimeFormatter.RFC_1123_DATE_TIME);
+                return Optional.of(Math.max(0, Duration.between(ZonedDateTime.now(at.getZone()), at).toMillis()));
+            } catch (RuntimeException notDate) {
+                return Optional.empty();
+            }
+        }
+    }
+
+    private void scheduleDrain(Endpoint state, long delayNanos) {
+        if (state.drainScheduled) {
+            return;
+        }
+        state.drainScheduled = true;
+        timer.schedule(() -> {
+            synchronized (state) {
+                state.drainScheduled = false;
+            }
+            drain(state);
+        }, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private final class Endpoint {
+        private final String name;
+        private final ArrayDeque<Pending<?>> queue = new ArrayDeque<>();
+        private double requestBudget = requestsPerMinute;
+        private double tokenBudget = tokensPerMinute;
+        private long lastRefill = System.nanoTime();
+        private long pausedUntil;
+        private int active;
+        private boolean drainScheduled;
+
+        private Endpoint(String name) {
+            this.name = name;
+        }
+
+        // Caller must hold the monitor.
+        private long secondsUntilReady() {
+            long pausedFor = Math.max(0, pausedUntil - System.nanoTime());
+            return Math.max(1, TimeUnit.NANOSECONDS.toSeconds(pausedFor) + 1);
+        }
+
+        private void refill(long now) {
+            double minutes = (now - lastRefill) / (double) TimeUnit.MINUTES.toNanos(1);
+            requestBudget = Math.min(requestsPerMinute, requestBudget + minutes * requestsPerMinute);
+            tokenBudget = Math.min(tokensPerMinute, tokenBudget + minutes * tokensPerMinute);
+            lastRefill = now;
+        }
+    }
+
+    private static final class Pending<T> {
+        private final int estimatedTokens;
+        private final boolean retryable;
+        private final Supplier<CompletableFuture<HttpResponse<T>>> call;
+        private final CompletableFuture<HttpResponse<T>> result = new CompletableFuture<>();
+        private final long enqueuedAt = System.nanoTime();
+        private volatile CompletableFuture<HttpResponse<T>> running;
+        private int attempt;
+
+        private Pending(int estimatedTokens, boolean retryable, Supplier<CompletableFuture<HttpResponse<T>>> call) {
+            this.estimatedTokens = estimatedTokens;
+            this.retryable = retryable;
+            this.call = call;
+        }
+
+        private void cancel() {
+            CompletableFuture<HttpResponse<T>> inProgress = running;
+            if (inProgress != null) {
+                inProgress.cancel(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package testleaf.llm;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
+
+/**
+ * Consumes an OpenAI-style {@code text/event-stream} completion line by line, forwarding
+ * each {@code choices[0].delta.content} and completing with the assembled content.
+ * Non-2xx responses are collected and surfaced as an "LLM Error" failure instead.
+ */
+class LLMStreamSubscriber implements Flow.Subscriber<String> {
+
+    private static final String DATA_PREFIX = "data:";
+
+    private final int statusCode;
+    private final Consumer<String> onDelta;
+    private final CompletableFuture<String> result;
+    private final StringBuilder content = new StringBuilder();
+    private Flow.Subscription subscription;
+
+    LLMStreamSubscriber(int statusCode, Consumer<String> onDelta, CompletableFuture<String> result) {
+        this.statusCode = statusCode;
+        this.onDelta = onDelta;
+        this.result = result;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        subscription.request(Long.MAX_VALUE);
+    }
+
+    @Override
+    public void onNext(String line) {
+        if (result.isDone()) {
+            // Caller gave up (client disconnected or cancelled); stop pulling from upstream.
+            subscription.cancel();
+            return;
+        }
+        if (statusCode / 100 != 2) {
+            content.append(line);
+            return;
+        }
+        if (!line.startsWith(DATA_PREFIX)) {
+            return;
+        }
+        String data = line.substring(DATA_PREFIX.length()).trim();
+        if (data.isEmpty() || data.equals("[DONE]")) {
+            return;
+        }
+        try {
+            LLMCompletion chunk = LLMCompletion.parse(data);
+            if (chunk.hasError()) {
+                fail("LLM Error: " + chunk.getErrorMessage());
+                return;
+            }
+            String delta = chunk.getContent();
+            if (delta != null && !delta.isEmpty()) {
+                content.append(delta);
+                onDelta.accept(delta);
+            }
+        } catch (Exception e) {
+            subscription.cancel();
+            result.completeExceptionally(e);
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        result.completeExceptionally(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        if (statusCode / 100 == 2) {
+            result.complete(content.toString());
+            return;
+        }
+        String message = content.toString();
+        try {
+            LLMCompletion error = LLMCompletion.parse(message);
+            if (error.hasError()) {
+                message = error.getErrorMessage();
+            }
+        } catch (Exception ignored) {
+            // Not JSON, report the raw body.
+        }
+        result.completeExceptionally(new RuntimeException("LLM Error: " + message));
+    }
+
+    private void fail(String message) {
+        subscription.cancel();
+        result.completeExceptionally(new RuntimeException(message));
+    }
+}
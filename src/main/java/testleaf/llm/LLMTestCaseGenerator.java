@@ -1,21 +1,19 @@
 package testleaf.llm;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.util.EntityUtils;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 @Service
 @RequiredArgsConstructor
 public class LLMTestCaseGenerator {
 
+    private final LLMGateway llmGateway;
+    private final LLMPromptTemplates promptTemplates;
+
     @Value("${llm.api.url}")
     private String llmApiUrl;
 
@@ -31,16 +29,75 @@ public class LLMTestCaseGenerator {
 
     public String llmGenerateTestCases(String testType, String userStoryDescription, String applicationUrl,
                                        String acceptanceCriteria, String epicDescription, String additionalInstructions) {
+        return llmGenerateTestCases(testType, userStoryDescription, applicationUrl, acceptanceCriteria,
+                epicDescription, additionalInstructions, false);
+    }
+
+    public String llmGenerateTestCases(String testType, String userStoryDescription, String applicationUrl,
+                                       String acceptanceCriteria, String epicDescription, String additionalInstructions,
+                                       boolean noCache) {
+
+        String invalidInput = validateInput(testType, userStoryDescription);
+        if (invalidInput != null) {
+            return invalidInput;
+        }
+
+        LLMChatRequest request = buildRequest(testType, userStoryDescription, applicationUrl, acceptanceCriteria,
+                epicDescription, additionalInstructions).noCache(noCache);
+
+        // Call the LLM endpoint
+        return callLLMApi(request);
+    }
 
+    /**
+     * Non-blocking variant of {@link #llmGenerateTestCases}; completes with the same raw response
+     * body. Failures, including {@link LLMRateLimitedException}, complete the future exceptionally
+     * so the caller can answer with a proper status instead of parsing an error string.
+     */
+    public CompletableFuture<String> llmGenerateTestCasesAsync(String testType, String userStoryDescription, String applicationUrl,
+                                                               String acceptanceCriteria, String epicDescription,
+                                                               String additionalInstructions, boolean noCache) {
+        String invalidInput = validateInput(testType, userStoryDescription);
+        if (invalidInput != null) {
+            return CompletableFuture.completedFuture(invalidInput);
+        }
+
+        LLMChatRequest request = buildRequest(testType, userStoryDescription, applicationUrl, acceptanceCriteria,
+                epicDescription, additionalInstructions).noCache(noCache);
+        return llmGateway.completeAsync(request);
+    }
+
+    /**
+     * Streaming variant of {@link #llmGenerateTestCases}: relays content deltas as they arrive and
+     * completes with the message content rather than the raw completion JSON.
+     */
+    public CompletableFuture<String> streamTestCases(String testType, String userStoryDescription, String applicationUrl,
+                                                     String acceptanceCriteria, String epicDescription, String additionalInstructions,
+                                                     boolean noCache, Consumer<String> onDelta) {
+        String invalidInput = validateInput(testType, userStoryDescription);
+        if (invalidInput != null) {
+            return CompletableFuture.completedFuture(invalidInput);
+        }
+
+        LLMChatRequest request = buildRequest(testType, userStoryDescription, applicationUrl, acceptanceCriteria,
+                epicDescription, additionalInstructions).noCache(noCache);
+        return llmGateway.stream(request, onDelta);
+    }
+
+    private String validateInput(String testType, String userStoryDescription) {
         if (userStoryDescription == null || userStoryDescription.isEmpty()) {
             return "No valid user story description to generate test cases.";
         }
 
-        String testTypePrompt;
         if (testType == null || testType.isEmpty()) {
             return "Only Positive tests"; // Default to positive
         }
+        return null;
+    }
 
+    private LLMChatRequest buildRequest(String testType, String userStoryDescription, String applicationUrl,
+                                        String acceptanceCriteria, String epicDescription, String additionalInstructions) {
+        String testTypePrompt;
         String[] types = testType.split(",\\s*"); // Split by comma and optional space
         int count = types.length;
 
@@ -55,109 +112,26 @@ public class LLMTestCaseGenerator {
             testTypePrompt = "Only Positive tests";
 
         // Build the user prompt using the user story details
-        String userPrompt = "Generate test cases for the following user story description:\n"
-                + userStoryDescription + "\n"
-                + "Application URL: " + applicationUrl + "\n"
-                + "Acceptance Criteria: " + acceptanceCriteria +"\n"
-                + "Test Type :"+ testTypePrompt;
-
-        if (epicDescription != null && !epicDescription.isEmpty()) {
-            userPrompt = userPrompt + "\nEpic Description: " + epicDescription;
-        }
-
-        if (additionalInstructions != null && !additionalInstructions.trim().isEmpty()) {
-            userPrompt = userPrompt + "\n[Important] Additional Instructions: " + additionalInstructions;
-        }
-
-        try {
-            // Prepare the chat messages
-            List<Map<String, String>> messages = new ArrayList<>();
-            Map<String, String> systemMessage = new HashMap<>();
-            systemMessage.put("role", "system");
-
-            String systemContent = "Instruction:\n"
-                    + "You are a highly skilled test analyst specializing in manual test case generation. Your task is to create structured manual test cases based on the given inputs, such as:\n\n"
-                    + "- Application URL\n"
-                    + "- User Story Description\n"
-                    + "- Acceptance Criteria\n"
-                    + "- Test Types (Positive, Negative, Edge, or All)\n\n"
-                    + "Each test case should be well-structured and easy to follow for manual testers.\n\n"
-                    + "Guidelines:\n"
-                    + "- Write in a step-by-step format using plain English.\n"
-                    + "- Do not include any code or automation-related steps.\n"
-                    + "- Ensure each test case covers a different scenario (positive, negative, and edge cases).\n"
-                    + "- Each test case must have:\n"
-                    + "  - A unique Test Case ID (e.g., TC001, TC002)\n"
-                    + "  - Clear test case description\n"
-                    + "  - Preconditions (if applicable)\n"
-                    + "  - Well-defined test steps\n"
-                    + "  - Expected and actual results\n"
-                    + "  - Status (set as \"Pending\" by default)\n"
-                    + "- Ensure completeness by covering all conditions mentioned in the user story and acceptance criteria.\n\n"
-                    + "Context:\n"
-                    + "You are assisting testers who will execute these test cases manually. Your test cases should be detailed yet concise, ensuring clarity and accuracy.\n\n"
-                    + "Persona:\n"
-                    + "- You are a meticulous and detail-oriented senior test lead.\n"
-                    + "- Your responses should be precise, structured, and well-formatted.\n\n"
-                    + "Output Format:\n"
-                    + "Your response must be in structured JSON format as shown below:\n\n"
-                    + "{\n"
-                    + "  \"testCases\": [\n"
-                    + "    {\n"
-                    + "      \"TC_No\": \"TC001\",\n"
-                    + "      \"Test_Case_Description\": \"Verify login with valid credentials\",\n"
-                    + "      \"Pre-requisites\": \"User must have valid credentials\",\n"
-                    + "      \"Test_Steps\": \"1. Open login page\\n2. Enter valid username\\n3. Enter valid password\\n4. Click on Login\",\n"
-                    + "      \"Actual_Result\": \"User is successfully logged in\",\n"
-                    + "      \"Expected_Result\": \"User should be logged in successfully\",\n"
-                    + "      \"Status\": \"Pending\"\n"
-                    + "    },\n"
-                    + "    {\n"
-                    + "      \"TC_No\": \"TC002\",\n"
-                    + "      \"Test_Case_Description\": \"Verify login with invalid credentials\",\n"
-                    + "      \"Pre-requisites\": \"User must have an invalid set of credentials\",\n"
-                    + "      \"Test_Steps\": \"1. Open login page\\n2. Enter invalid username\\n3. Enter invalid password\\n4. Click on Login\",\n"
-                    + "      \"Actual_Result\": \"Error message displayed\",\n"
-                    + "      \"Expected_Result\": \"User should receive an error message\",\n"
-                    + "      \"Status\": \"Pending\"\n"
-                    + "    }\n"
-                    + "  ]\n"
-                    + "}\n\n"
-                    + "Tone:\n"
-                    + "- Professional, clear, and structured\n"
-                    + "- Concise yet detailed\n"
-                    + "- User-friendly for manual testers";
-
-
-
-
-            systemMessage.put("content", systemContent);
-            messages.add(systemMessage);
-
-            // Prepare the user message with user story details
-            Map<String, String> userMessage = new HashMap<>();
-            userMessage.put("role", "user");
-            userMessage.put("content", userPrompt);
-            messages.add(userMessage);
-
-            // Build the request payload
-            Map<String, Object> payload = new HashMap<>();
-            payload.put("model", modelName);
-            payload.put("messages", messages);
-            payload.put("temperature", 0.1);
-            payload.put("top_p", 0.2);
-            payload.put("max_tokens", 20000);
-
-            ObjectMapper mapper = new ObjectMapper();
-            String requestBody = mapper.writeValueAsString(payload);
-
-            // Call the LLM endpoint
-            return callLLMApi(requestBody);
-
-        } catch (Exception e) {
-            e.printStackTrace();
-            return "Error building JSON payload: " + e.getMessage();
-        }
+        String epic = epicDescription != null && !epicDescription.isEmpty()
+                ? "\nEpic Description: " + epicDescription : "";
+        String additional = additionalInstructions != null && !additionalInstructions.trim().isEmpty()
+                ? "\n[Important] Additional Instructions: " + additionalInstructions : "";
+        LLMPrompt userPrompt = promptTemplates.get("test-cases-user").bind(
+                "userStory", userStoryDescription,
+                "applicationUrl", applicationUrl,
+                "acceptanceCriteria", acceptanceCriteria,
+                "testType", testTypePrompt,
+                "epic", epic,
+                "additionalInstructions", additional);
+
+        // Build the request with the system instructions and the user story details
+        return new LLMChatRequest(llmApiUrl, apiKey, modelName)
+                .task("test-cases")
+                .temperature(0.1)
+                .topP(0.2)
+                .maxTokens(20000)
+                .message("system", promptTemplates.get("test-cases-system").bind())
+                .message("user", userPrompt);
     }
 
     // For backward compatibility: defaults to positive tests if testType is not provided.
@@ -166,16 +140,11 @@ public class LLMTestCaseGenerator {
         return llmGenerateTestCases("positive", userStoryDescription, applicationUrl, acceptanceCriteria, epicDescription, additionalInstruction);
     }
 
-    private String callLLMApi(String requestBody) {
-        try (var httpClient = HttpClients.createDefault()) {
-            var request = new HttpPost(llmApiUrl);
-            request.setHeader("Content-Type", "application/json");
-            request.setHeader("Authorization", "Bearer " + apiKey);
-            request.setEntity(new StringEntity(requestBody));
-
-            try (CloseableHttpResponse response = httpClient.execute(request)) {
-                return EntityUtils.toString(response.getEntity());
-            }
+    private String callLLMApi(LLMChatRequest request) {
+        try {
+            return llmGateway.complete(request);
+        } catch (LLMRateLimitedException e) {
+            throw e;
         } catch (Exception e) {
             e.printStackTrace();
             return "Error calling LLM API: " + e.getMessage();
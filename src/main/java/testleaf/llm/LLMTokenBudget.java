@@ -0,0 +1,180 @@
+package testleaf.llm;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Sizes {@code max_tokens} per call and learns from the {@code usage} providers report.
+ * Per task it tracks an EWMA (mean and variance) of the completion-to-prompt token ratio;
+ * once enough samples exist, the budget is the prompt size times that ratio plus
+ * {@code stddev-headroom} standard deviations, instead of the generator's fixed default.
+ * Per endpoint it tracks token totals and a correction factor for the local estimate.
+ * The budget never exceeds what is left of the context window after the prompt.
+ */
+@Component
+public class LLMTokenBudget {
+
+    private static final Logger LOGGER = Logger.getLogger(LLMTokenBudget.class.getName());
+    private static final String DEFAULT_TASK = "default";
+    // Truncated answers under-report what the task needed.
+    private static final double TRUNCATION_PENALTY = 1.5;
+
+    private final boolean adaptive;
+    private final int contextWindow;
+    private final int minCompletionTokens;
+    private final double stddevHeadroom;
+    private final int minSamples;
+    private final double alpha;
+
+    private final Map<String, TaskRatio> tasks = new ConcurrentHashMap<>();
+    private final Map<String, EndpointUsage> endpoints = new ConcurrentHashMap<>();
+
+    public LLMTokenBudget(@Value("${llm.tokens.adaptive:true}") boolean adaptive,
+                          @Value("${llm.tokens.context-window:32768}") int contextWindow,
+                          @Value("${llm.tokens.min-completion:256}") int minCompletionTokens,
+                          @Value("${llm.tokens.stddev-headroom:2.0}") double stddevHeadroom,
+                          @Value("${llm.tokens.min-samples:5}") int minSamples,
+                          @Value("${llm.tokens.ewma-alpha:0.2}") double alpha) {
+        this.adaptive = adaptive;
+        this.contextWindow = contextWindow;
+        this.minCompletionTokens = minCompletionTokens;
+        this.stddevHeadroom = stddevHeadroom;
+        this.minSamples = minSamples;
+        this.alpha = alpha;
+    }
+
+    /**
+     * The local estimate scaled by how far off it has been for this endpoint so far.
+     */
+    public int calibratedPromptTokens(LLMChatRequest request, int estimatedPromptTokens) {
+        EndpointUsage usage = endpoints.get(endpointKey(request));
+        double factor = usage == null ? 1.0 : usage.estimateFactor();
+        return (int) Math.ceil(estimatedPromptTokens * factor);
+    }
+
+    public int maxTokensFor(LLMChatRequest request, int promptTokens) {
+        int budget = request.getMaxTokens();
+        if (adaptive) {
+            TaskRatio ratio = tasks.get(taskKey(request));
+            if (ratio != null) {
+                double[] snapshot = ratio.snapshot();
+                if (snapshot[0] >= minSamples) {
+                    budget = (int) Math.ceil(promptTokens * (snapshot[1] + stddevHeadroom * Math.sqrt(snapshot[2])));
+                }
+            }
+        }
+
+        int room = contextWindow - promptTokens;
+        if (room < minCompletionTokens) {
+            LOGGER.warning("Prompt of ~" + promptTokens + " tokens for task " + taskKey(request)
+                    + " leaves no room in a " + contextWindow + "-token context window");
+            return minCompletionTokens;
+        }
+        return Math.max(minCompletionTokens, Math.min(budget, room));
+    }
+
+    /**
+     * Records one finished call. Counts the provider did not report are passed as -1.
+     */
+    public void record(LLMChatRequest request, int estimatedPromptTokens, int promptTokens, int completionTokens,
+                       boolean truncated) {
+        int prompt = promptTokens > 0 ? promptTokens : estimatedPromptTokens;
+        if (prompt <= 0 || completionTokens < 0) {
+            return;
+        }
+        double ratio = (double) completionTokens / prompt * (truncated ? TRUNCATION_PENALTY : 1.0);
+        tasks.computeIfAbsent(taskKey(request), key -> new TaskRatio()).add(ratio, alpha);
+
+        EndpointUsage usage = endpoints.computeIfAbsent(endpointKey(request), key -> new EndpointUsage());
+        usage.add(estimatedPromptTokens, promptTokens, completionTokens, truncated, alpha);
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        Map<String, Object> perTask = new LinkedHashMap<>();
+        tasks.forEach((task, ratio) -> {
+            double[] snapshot = ratio.snapshot();
+            Map<String, Object> taskStats = new LinkedHashMap<>();
+            taskStats.put("samples", (long) snapshot[0]);
+            taskStats.put("outputToInputRatio", snapshot[1]);
+            taskStats.put("ratioStdDev", Math.sqrt(snapshot[2]));
+            perTask.put(task, taskStats);
+        });
+        stats.put("tasks", perTask);
+        Map<String, Object> perEndpoint = new LinkedHashMap<>();
+        endpoints.forEach((endpoint, usage) -> perEndpoint.put(endpoint, usage.describe()));
+        stats.put("endpoints", perEndpoint);
+        return stats;
+    }
+
+    private static String taskKey(LLMChatRequest request) {
+        return request.getTask() == null ? DEFAULT_TASK : request.getTask();
+    }
+
+    private static String endpointKey(LLMChatRequest request) {
+        return request.getModel() + "@" + request.getApiUrl();
+    }
+
+    private static final class TaskRatio {
+        private long samples;
+        private double mean;
+        private double variance;
+
+        private synchronized void add(double ratio, double alpha) {
+            if (samples++ == 0) {
+                mean = ratio;
+                return;
+            }
+            double diff = ratio - mean;
+            double increment = alpha * diff;
+            mean += increment;
+            variance = (1 - alpha) * (variance + diff * increment);
+        }
+
+        private synchronized double[] snapshot() {
+            return new double[]{samples, mean, variance};
+        }
+    }
+
+    private static final class EndpointUsage {
+        private long calls;
+        private long promptTokens;
+        private long completionTokens;
+        private long truncated;
+        private double estimateFactor = 1.0;
+        private boolean calibrated;
+
+        private synchronized void add(int estimatedPrompt, int actualPrompt, int completion, boolean wasTruncated, double alpha) {
+            calls++;
+            promptTokens += Math.max(0, actualPrompt);
+            completionTokens += completion;
+            if (wasTruncated) {
+                truncated++;
+            }
+            if (actualPrompt > 0 && estimatedPrompt > 0) {
+                double factor = (double) actualPrompt / estimatedPrompt;
+                estimateFactor = calibrated ? alpha * factor + (1 - alpha) * estimateFactor : factor;
+                calibrated = true;
+            }
+        }
+
+        private synchronized double estimateFactor() {
+            return estimateFactor;
+        }
+
+        private synchronized Map<String, Object> describe() {
+            Map<String, Object> description = new LinkedHashMap<>();
+            description.put("calls", calls);
+            description.put("promptTokens", promptTokens);
+            description.put("completionTokens", completionTokens);
+            description.put("truncated", truncated);
+            description.put("estimateFactor", estimateFactor);
+            return description;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package testleaf.llm;
+
+/**
+ * Local prompt token estimator. Splits text the way GPT-style BPE pre-tokenizers do
+ * (letter runs with their leading space, digit groups of up to three, punctuation runs,
+ * whitespace) and charges each piece what BPE vocabularies typically spend on it: common
+ * short words are one token, longer words about one per four letters, non-Latin scripts
+ * about one per character. The gateway corrects the result per endpoint against the
+ * {@code usage} the provider reports, so it only needs to be consistent, not exact.
+ */
+public final class LLMTokenEstimator {
+
+    /** Chat formatting overhead per message (role markers, separators). */
+    public static final int TOKENS_PER_MESSAGE = 4;
+    /** Tokens the provider adds to prime the assistant reply. */
+    public static final int REPLY_PRIMING_TOKENS = 3;
+
+    private LLMTokenEstimator() {
+    }
+
+    public static int estimate(CharSequence text) {
+        if (text == null) {
+            return 0;
+        }
+        int tokens = 0;
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            char c = text.charAt(i);
+            if (c == ' ' && i + 1 < length && Character.isLetter(text.charAt(i + 1))) {
+                i++; // A single leading space belongs to the following word.
+                c = text.charAt(i);
+            }
+            int start = i;
+            if (Character.isLetter(c)) {
+                if (c < 0x0250) {
+                    while (i < length && Character.isLetter(text.charAt(i)) && text.charAt(i) < 0x0250) {
+                        i++;
+                    }
+                    tokens += wordTokens(i - start);
+                } else {
+                    // CJK, Cyrillic, etc.: vocabularies rarely merge these beyond a character or two.
+                    while (i < length && Character.isLetter(text.charAt(i)) && text.charAt(i) >= 0x0250) {
+                        i++;
+                    }
+                    tokens += i - start;
+                }
+            } else if (Character.isDigit(c)) {
+                while (i < length && Character.isDigit(text.charAt(i))) {
+                    i++;
+                }
+                tokens += (i - start + 2) / 3;
+            } else if (Character.isWhitespace(c)) {
+                while (i < length && Character.isWhitespace(text.charAt(i))) {
+                    i++;
+                }
+                // Indentation and blank lines merge well; count roughly one token per newline group.
+                tokens += Math.max(1, countNewlines(text, start, i));
+            } else {
+                while (i < length && isPunctuation(text.charAt(i))) {
+                    i++;
+                }
+                if (i == start) {
+                    i++; // Surrogates, symbols: one token each.
+                    tokens++;
+                } else {
+                    tokens += (i - start + 1) / 2;
+                }
+            }
+        }
+        return tokens;
+    }
+
+    private static int wordTokens(int letters) {
+        return letters <= 6 ? 1 : (letters + 3) / 4;
+    }
+
+    private static int countNewlines(CharSequence text, int from, int to) {
+        int newlines = 0;
+        for (int i = from; i < to; i++) {
+            if (text.charAt(i) == '\n') {
+                newlines++;
+            }
+        }
+        return newlines;
+    }
+
+    private static boolean isPunctuation(char c) {
+        return c < 0x80 && !Character.isLetterOrDigit(c) && !Character.isWhitespace(c);
+    }
+}
@@ -1,7 +1,5 @@
 package testleaf.llm;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.stereotype.Service;
 
 @Service
@@ -10,12 +8,9 @@ public class TestCodeGenerator {
 	
 	public String extractTypescriptCode(String llmResponse) {
         try {
-            ObjectMapper mapper = new ObjectMapper();
-            JsonNode rootNode = mapper.readTree(llmResponse);
-            JsonNode choicesNode = rootNode.path("choices");
-            if (choicesNode.isArray() && choicesNode.size() > 0) {
-                JsonNode messageNode = choicesNode.get(0).path("message");
-                String content = messageNode.path("content").asText().trim();
+            String content = LLMCompletion.parse(llmResponse).getContent();
+            if (content != null) {
+                content = content.trim();
                 if (content.contains("```typescript")) {
                     int start = content.indexOf("```typescript");
                     int end = content.lastIndexOf("```");
@@ -35,12 +30,9 @@ public class TestCodeGenerator {
      */
     public String extractJavaCode(String llmResponse) {
         try {
-            ObjectMapper mapper = new ObjectMapper();
-            JsonNode rootNode = mapper.readTree(llmResponse);
-            JsonNode choicesNode = rootNode.path("choices");
-            if (choicesNode.isArray() && choicesNode.size() > 0) {
-                JsonNode messageNode = choicesNode.get(0).path("message");
-                String content = messageNode.path("content").asText().trim();
+            String content = LLMCompletion.parse(llmResponse).getContent();
+            if (content != null) {
+                content = content.trim();
                 if (content.contains("```java")) {
                     int start = content.indexOf("```java");
                     int end = content.lastIndexOf("```");